@@ -0,0 +1,108 @@
+package benchmark;
+
+import core.ActFunc;
+import core.Tensor;
+import core.Utility;
+import core.layer.ConvEngine;
+import core.layer.ConvMode;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.Layer;
+import core.layer.LayerParameters;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import core.network.ConvolutionalNetwork;
+import core.network.ConvolutionalNetworkParameters;
+import core.network.MemoryPlan;
+
+import java.nio.DoubleBuffer;
+import java.util.List;
+import java.util.Random;
+
+public class RunCheckpointBenchmark {
+
+	private static final int warmupSteps = 20;
+	private static final int steps = 20;
+
+	public static void main(String[] args) {
+		// the same network trained keeping every layer and with checkpoints after each pool, which must give the same
+		// gradients; the plans are printed for the batch sizes too
+		int[] batchSizes = args.length > 0 ? new int[]{Integer.parseInt(args[0])} : new int[]{16, 128};
+		int[][] checkpointSets = {null, {2, 5}, {5}};
+		for (int batchSize : batchSizes) {
+			ConvolutionalNetworkParameters param = parameters(batchSize);
+			ConvolutionalNetwork net = new ConvolutionalNetwork(param);
+			Random rand = new Random(0);
+			Tensor x = net.getInput(0, batchSize);
+			for (int n = 0; n < x.length(); n++) {
+				x.data[x.offset + n] = rand.nextDouble();
+			}
+			double[] error = new double[batchSize * param.numOutputs];
+			for (int n = 0; n < error.length; n++) {
+				error[n] = rand.nextDouble() - 0.5;
+			}
+			double[] reference = null;
+			for (int[] checkpoints : checkpointSets) {
+				MemoryPlan plan = MemoryPlan.of(param, batchSize, checkpoints);
+				net.setCheckpoints(checkpoints);
+				System.out.println("Batch " + batchSize + ", checkpoints " + (checkpoints == null ? "none" : java.util.Arrays.toString(checkpoints)));
+				System.out.println(plan);
+				for (int s = 0; s < warmupSteps; s++) {
+					step(net, error, batchSize);
+				}
+				long t0 = System.nanoTime();
+				for (int s = 0; s < steps; s++) {
+					step(net, error, batchSize);
+				}
+				double millis = (System.nanoTime() - t0) / (1e6 * steps);
+				double[] gradients = gradients(net);
+				if (reference == null) {
+					reference = gradients;
+				}
+				double maxDiff = 0;
+				for (int n = 0; n < gradients.length; n++) {
+					maxDiff = Math.max(maxDiff, Math.abs(gradients[n] - reference[n]));
+				}
+				System.out.println("  " + Utility.roundString(millis) + " ms per step, max gradient difference from keeping every layer " + maxDiff);
+				System.out.println();
+			}
+		}
+	}
+
+	private static ConvolutionalNetworkParameters parameters(int batchSize) {
+		List<LayerParameters> layerParams = List.of(
+				new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU),
+				new ConvolutionalLayerParameters(2, 8, 1, ActFunc.RELU, ConvEngine.IM2COL, ConvMode.MULTI_CHANNEL, true),
+				new PoolLayerParameters(2, 2, PoolType.MAX),
+				new ConvolutionalLayerParameters(2, 8, 1, ActFunc.RELU, ConvEngine.IM2COL, ConvMode.MULTI_CHANNEL, true),
+				new ConvolutionalLayerParameters(2, 8, 1, ActFunc.RELU, ConvEngine.IM2COL, ConvMode.MULTI_CHANNEL, true),
+				new PoolLayerParameters(2, 2, PoolType.MAX),
+				new ConvolutionalLayerParameters(2, 8, 1, ActFunc.RELU, ConvEngine.IM2COL, ConvMode.MULTI_CHANNEL, true),
+				new PoolLayerParameters(7, 7, PoolType.AVG),
+				new FullLayerParameters(10, ActFunc.SOFTMAX)
+		);
+		return new ConvolutionalNetworkParameters(new int[]{28, 28, 1}, 10, layerParams, batchSize);
+	}
+
+	private static void step(ConvolutionalNetwork net, double[] error, int batchSize) {
+		// gradients only, the weights stay put so every setting sees the same network
+		net.prepareGrads();
+		net.evaluateBatch(net.getInput(0, batchSize), 0);
+		Tensor outputError = net.getOutputError(0, batchSize);
+		System.arraycopy(error, 0, outputError.data, outputError.offset, error.length);
+		net.backPropagateBatch(outputError, 0, net.getGradients());
+	}
+
+	private static double[] gradients(ConvolutionalNetwork net) {
+		Layer[] gradients = net.getGradients();
+		int numWeights = 0;
+		for (Layer gradient : gradients) {
+			numWeights += gradient.getNumWeights();
+		}
+		DoubleBuffer buffer = DoubleBuffer.allocate(numWeights);
+		for (Layer gradient : gradients) {
+			gradient.saveWeights(buffer);
+		}
+		return buffer.array();
+	}
+}
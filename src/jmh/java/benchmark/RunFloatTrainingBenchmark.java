@@ -0,0 +1,55 @@
+package benchmark;
+
+import core.ActFunc;
+import core.Evaluation;
+import core.Trainer;
+import core.Utility;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.LayerParameters;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import core.layer.Precision;
+import core.network.ConvolutionalNetwork;
+import core.network.ConvolutionalNetworkParameters;
+import digitrecognition.DigitRecognitionFitness;
+
+import java.util.List;
+
+public class RunFloatTrainingBenchmark {
+
+	private static final long seed = 1;
+
+	public static void main(String[] args) {
+		// trains the RunPrecisionBenchmark network on the MNIST files once per precision, from the same initial
+		// weights and batch order
+		int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 60000;
+		int batchSize = 10;
+
+		DigitRecognitionFitness trainFit = new DigitRecognitionFitness(true, 1.0, false);
+		DigitRecognitionFitness testFit = new DigitRecognitionFitness(false, 1.0, false);
+		for (Precision precision : Precision.values()) {
+			List<LayerParameters> layerParams = List.of(
+					new ConvolutionalLayerParameters(2, 3, 0, ActFunc.RELU),
+					new PoolLayerParameters(2, 2, PoolType.AVG),
+					new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU),
+					new PoolLayerParameters(3, 2, PoolType.AVG),
+					new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU),
+					new PoolLayerParameters(6, 6, PoolType.MAX),
+					new FullLayerParameters(10, ActFunc.SIGMOID)
+			);
+			Utility.seed(seed);
+			ConvolutionalNetwork net = new ConvolutionalNetwork(new ConvolutionalNetworkParameters(new int[]{28, 28, 1}, 10, layerParams, batchSize, precision));
+
+			Trainer t = new Trainer(1, net, trainFit.getDataset(), batchSize, 10, Runtime.getRuntime().availableProcessors(), seed);
+			long t0 = System.nanoTime();
+			t.train(cycles);
+			double seconds = (System.nanoTime() - t0) / 1e9;
+			t.shutdown();
+
+			Evaluation evaluation = Evaluation.evaluate(net, testFit.getDataset(), testFit.getDataset().size());
+			System.out.println(precision + ": test accuracy " + 100.0 * evaluation.percentCorrect() + "%, "
+					+ Math.round(cycles * batchSize / seconds) + " training images/s");
+		}
+	}
+}
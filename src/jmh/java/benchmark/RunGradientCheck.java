@@ -0,0 +1,173 @@
+package benchmark;
+
+import core.ActFunc;
+import core.Tensor;
+import core.layer.ConvEngine;
+import core.layer.ConvMode;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.Layer;
+import core.layer.LayerParameters;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import core.network.ConvolutionalNetwork;
+import core.network.ConvolutionalNetworkParameters;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class RunGradientCheck {
+
+	private static final int batchSize = 3;
+	private static final int numInputs = 200;
+	private static final int numOutputs = 5;
+	private static final double[] steps = {1e-5, 1e-6};
+	private static final double minScale = 1e-3;
+	private static final double maxRelativeError = 1e-6;
+	private static final double maxBatchDifference = 1e-12;
+
+	public static void main(String[] args) {
+		// every engine, mode, bias and checkpoint setting against central differences and against single samples
+		int[][] checkpointSets = {null, {1, 3}};
+		boolean passed = true;
+		for (ConvEngine engine : ConvEngine.values()) {
+			for (ConvMode mode : ConvMode.values()) {
+				for (boolean bias : new boolean[]{false, true}) {
+					for (int[] checkpoints : checkpointSets) {
+						ConvolutionalNetwork net = network(engine, mode, bias);
+						net.setCheckpoints(checkpoints);
+						// small inputs keep the loss near 1, which keeps the rounding in its differences small
+						Random rand = new Random(0);
+						double[] x = new double[batchSize * numInputs];
+						for (int n = 0; n < x.length; n++) {
+							x[n] = 0.1 * rand.nextDouble();
+						}
+						double[] ans = new double[batchSize * numOutputs];
+						for (int k = 0; k < batchSize; k++) {
+							ans[k * numOutputs + rand.nextInt(numOutputs)] = 1;
+						}
+						double[] relativeError = relativeError(net, x, ans);
+						double batchDifference = batchDifference(net, x, ans);
+						boolean ok = relativeError[0] <= maxRelativeError && batchDifference <= maxBatchDifference;
+						passed &= ok;
+						System.out.println(engine + " " + mode + (bias ? " bias" : " no bias")
+								+ ", checkpoints " + (checkpoints == null ? "none" : Arrays.toString(checkpoints))
+								+ ": max relative error " + relativeError[0] + " (" + (int) relativeError[1] + " weights skipped)"
+								+ ", max single versus batched difference " + batchDifference
+								+ (ok ? "" : " FAILED"));
+					}
+				}
+			}
+		}
+		System.out.println(passed ? "All gradients match" : "Some gradients do not match");
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+
+	private static ConvolutionalNetwork network(ConvEngine engine, ConvMode mode, boolean bias) {
+		// piecewise linear, since the spline sigmoid and tanh only match their derivatives to about 1e-5
+		List<LayerParameters> layerParams = List.of(
+				new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, engine, mode, bias),
+				new PoolLayerParameters(2, 2, PoolType.MAX),
+				new ConvolutionalLayerParameters(2, 2, 0, ActFunc.LEAKY_RELU, engine, mode, bias),
+				new PoolLayerParameters(2, 2, PoolType.AVG),
+				new FullLayerParameters(numOutputs, ActFunc.IDENTITY)
+		);
+		return new ConvolutionalNetwork(new ConvolutionalNetworkParameters(new int[]{10, 10, 2}, numOutputs, layerParams, batchSize));
+	}
+
+	private static double[] relativeError(ConvolutionalNetwork net, double[] x, double[] ans) {
+		// the largest error and the number of weights skipped, each weight moved by applying a one-hot shard
+		double[] analytic = batchGradients(net, x, ans);
+		Layer[] delta = net.newGradientShard();
+		double maxError = 0;
+		int skipped = 0;
+		int index = 0;
+		for (int l = 0; l < delta.length; l++) {
+			for (int i = 0; i < delta[l].getNumWeights(); i++, index++) {
+				double[] oneHot = new double[delta[l].getNumWeights()];
+				oneHot[i] = 1;
+				delta[l].loadWeights(DoubleBuffer.wrap(oneHot));
+				double[] numeric = new double[steps.length];
+				for (int s = 0; s < steps.length; s++) {
+					net.applyGradients(delta, steps[s]);
+					double plus = loss(net, x, ans);
+					net.applyGradients(delta, -2 * steps[s]);
+					double minus = loss(net, x, ans);
+					net.applyGradients(delta, steps[s]);
+					numeric[s] = (plus - minus) / (2 * steps[s]);
+				}
+				delta[l].zero();
+
+				// central differences are exact between kinks, so steps that disagree straddle one and are skipped
+				double scale = Math.max(minScale, Math.abs(numeric[0]) + Math.abs(analytic[index]));
+				if (Math.abs(numeric[0] - numeric[1]) / scale > maxRelativeError) {
+					skipped++;
+				} else {
+					maxError = Math.max(maxError, Math.abs(numeric[0] - analytic[index]) / scale);
+				}
+			}
+		}
+		return new double[]{maxError, skipped};
+	}
+
+	private static double batchDifference(ConvolutionalNetwork net, double[] x, double[] ans) {
+		// outputs and gradients only differ by the order of the sums, gradients relative to their size
+		double[] batched = batchGradients(net, x, ans);
+		double[] outputs = net.evaluateBatch(x, batchSize, 0);
+
+		net.prepareGrads();
+		double maxDiff = 0;
+		for (int k = 0; k < batchSize; k++) {
+			double[] eval = net.evaluate(Arrays.copyOfRange(x, k * numInputs, (k + 1) * numInputs), k);
+			for (int n = 0; n < numOutputs; n++) {
+				maxDiff = Math.max(maxDiff, Math.abs(eval[n] - outputs[k * numOutputs + n]));
+			}
+			net.backPropagate(Arrays.copyOfRange(ans, k * numOutputs, (k + 1) * numOutputs), eval, k);
+		}
+		double[] single = gradients(net);
+		for (int n = 0; n < single.length; n++) {
+			maxDiff = Math.max(maxDiff, Math.abs(single[n] - batched[n]) / Math.max(1, Math.abs(batched[n])));
+		}
+		return maxDiff;
+	}
+
+	private static double[] batchGradients(ConvolutionalNetwork net, double[] x, double[] ans) {
+		// the gradient of half the summed squared error over the batch
+		net.prepareGrads();
+		Tensor input = net.getInput(0, batchSize);
+		System.arraycopy(x, 0, input.data, input.offset, x.length);
+		Tensor eval = net.evaluateBatch(input, 0);
+		Tensor error = net.getOutputError(0, batchSize);
+		for (int n = 0; n < ans.length; n++) {
+			error.data[error.offset + n] = eval.data[eval.offset + n] - ans[n];
+		}
+		net.backPropagateBatch(error, 0, net.getGradients());
+		return gradients(net);
+	}
+
+	private static double loss(ConvolutionalNetwork net, double[] x, double[] ans) {
+		double[] eval = net.evaluateBatch(x, batchSize, 0);
+		double loss = 0;
+		for (int n = 0; n < ans.length; n++) {
+			loss += 0.5 * (eval[n] - ans[n]) * (eval[n] - ans[n]);
+		}
+		return loss;
+	}
+
+	private static double[] gradients(ConvolutionalNetwork net) {
+		Layer[] gradients = net.getGradients();
+		int numWeights = 0;
+		for (Layer gradient : gradients) {
+			numWeights += gradient.getNumWeights();
+		}
+		DoubleBuffer buffer = DoubleBuffer.allocate(numWeights);
+		for (Layer gradient : gradients) {
+			gradient.saveWeights(buffer);
+		}
+		return buffer.array();
+	}
+}
@@ -0,0 +1,84 @@
+package benchmark;
+
+import core.ActFunc;
+import core.Evaluation;
+import core.Trainer;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.LayerParameters;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import core.network.ConvolutionalNetwork;
+import core.network.ConvolutionalNetworkParameters;
+import core.network.InferenceNetwork;
+import core.network.InferencePrecision;
+import digitrecognition.DigitRecognitionFitness;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RunPrecisionBenchmark {
+
+	private static final int maxBatchSize = 256;
+	private static final int repetitions = 5;
+	private static final int calibrationCount = 1000;
+
+	public static void main(String[] args) {
+		// trains on the MNIST files like RunTrain, then freezes the same weights at every precision; INT8 is calibrated
+		// on the first training images
+		int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 60000;
+		int batchSize = 10;
+
+		List<LayerParameters> layerParams = new ArrayList<>(List.of(
+				new ConvolutionalLayerParameters(2, 3, 0, ActFunc.RELU),
+				new PoolLayerParameters(2, 2, PoolType.AVG),
+				new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU),
+				new PoolLayerParameters(3, 2, PoolType.AVG),
+				new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU),
+				new PoolLayerParameters(6, 6, PoolType.MAX),
+				new FullLayerParameters(10, ActFunc.SIGMOID)
+		));
+		ConvolutionalNetwork trained = new ConvolutionalNetwork(new ConvolutionalNetworkParameters(new int[]{28, 28, 1}, 10, layerParams, batchSize));
+
+		DigitRecognitionFitness trainFit = new DigitRecognitionFitness(true, 1.0, false);
+		DigitRecognitionFitness testFit = new DigitRecognitionFitness(false, 1.0, false);
+		Trainer t = new Trainer(1, trained, trainFit.getDataset(), batchSize, 10, Runtime.getRuntime().availableProcessors(), 0);
+		t.train(cycles);
+		t.shutdown();
+
+		int count = testFit.getDataset().size();
+		double[] images = new double[count * 784];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(testFit.getDataset().image(i), 0, images, i * 784, 784);
+		}
+		int calibrated = Math.min(calibrationCount, trainFit.getDataset().size());
+		double[] calibration = new double[calibrated * 784];
+		for (int i = 0; i < calibrated; i++) {
+			System.arraycopy(trainFit.getDataset().image(i), 0, calibration, i * 784, 784);
+		}
+		double[] reference = null;
+		for (InferencePrecision precision : InferencePrecision.values()) {
+			InferenceNetwork net = new InferenceNetwork(trained, maxBatchSize, precision, calibration, calibrated);
+			Evaluation evaluation = Evaluation.evaluate(net, testFit.getDataset(), count);
+			double[] outputs = net.predictBatch(images, count);
+			// untimed passes first, the float paths are cold when their turn comes
+			for (int r = 0; r < repetitions; r++) {
+				net.predictBatch(images, count);
+			}
+			long t0 = System.nanoTime();
+			for (int r = 0; r < repetitions; r++) {
+				net.predictBatch(images, count);
+			}
+			double seconds = (System.nanoTime() - t0) / 1e9;
+			if (reference == null) {
+				reference = outputs;
+			}
+			double maxDiff = 0;
+			for (int i = 0; i < outputs.length; i++) {
+				maxDiff = Math.max(maxDiff, Math.abs(outputs[i] - reference[i]));
+			}
+			System.out.println(precision + ": test accuracy " + 100.0 * evaluation.percentCorrect() + "%, "
+					+ Math.round(repetitions * count / seconds) + " images/s, " + net.getWeightBytes() + " bytes of weights, max output difference from DOUBLE " + maxDiff);
+		}
+	}
+}
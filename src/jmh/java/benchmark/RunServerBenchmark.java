@@ -0,0 +1,73 @@
+package benchmark;
+
+import core.ActFunc;
+import core.layer.ConvEngine;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.LayerParameters;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import core.network.ConvolutionalNetwork;
+import core.network.ConvolutionalNetworkParameters;
+import core.network.InferenceNetwork;
+import core.serving.InferenceServer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RunServerBenchmark {
+
+	private static final int clients = 32;
+	private static final int requestsPerClient = 200;
+
+	public static void main(String[] args) throws Exception {
+		// an untrained MNIST shaped network on an ephemeral localhost port, so no model files are needed
+		List<LayerParameters> layerParams = new ArrayList<>(List.of(
+				new ConvolutionalLayerParameters(2, 3, 0, ActFunc.RELU, ConvEngine.IM2COL),
+				new PoolLayerParameters(2, 2, PoolType.AVG),
+				new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, ConvEngine.IM2COL),
+				new PoolLayerParameters(3, 2, PoolType.AVG),
+				new FullLayerParameters(10, ActFunc.SIGMOID)
+		));
+		ConvolutionalNetwork trained = new ConvolutionalNetwork(new ConvolutionalNetworkParameters(new int[]{28, 28, 1}, 10, layerParams, 1));
+
+		for (int maxBatchSize : new int[]{1, 8, 32}) {
+			InferenceServer server = new InferenceServer(new InferenceNetwork(trained, maxBatchSize), 0, maxBatchSize, 2000, clients);
+			HttpClient client = HttpClient.newHttpClient();
+			URI uri = URI.create("http://localhost:" + server.getPort() + "/predict");
+			ExecutorService pool = Executors.newFixedThreadPool(clients);
+			List<Future<?>> futures = new ArrayList<>();
+			long t0 = System.nanoTime();
+			for (int c = 0; c < clients; c++) {
+				Random rand = new Random(c);
+				futures.add(pool.submit(() -> {
+					for (int r = 0; r < requestsPerClient; r++) {
+						StringBuilder body = new StringBuilder();
+						for (int p = 0; p < 784; p++) {
+							body.append(p > 0 ? "," : "").append(rand.nextInt(256) / 256.0);
+						}
+						HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(body.toString())).build();
+						client.send(request, HttpResponse.BodyHandlers.ofString());
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			double seconds = (System.nanoTime() - t0) / 1e9;
+			pool.shutdown();
+			System.out.println("max batch " + maxBatchSize + ": " + Math.round(clients * requestsPerClient / seconds) + " requests/s");
+			System.out.println("  " + server.getStats().toJson());
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package benchmark.jmh;
+
+import core.ActFunc;
+import core.ActFuncs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ActivationBenchmark {
+
+	@Param({"SIGMOID", "RELU", "IDENTITY", "TANH", "LEAKY_RELU"})
+	public ActFunc actFunc;
+
+	@Param({"1024", "65536"})
+	public int length;
+
+	private double[] source;
+	private double[] values;
+	private double[] primes;
+
+	@Setup
+	public void setup() {
+		Random rand = new Random(0);
+		this.source = new double[this.length];
+		for (int n = 0; n < this.length; n++) {
+			this.source[n] = 20 * rand.nextGaussian();
+		}
+		this.values = new double[this.length];
+		this.primes = new double[this.length];
+		ActFuncs.getActFuncs();
+	}
+
+	@Benchmark
+	public double[] actFuncify() {
+		System.arraycopy(this.source, 0, this.values, 0, this.length);
+		ActFuncs.getActFuncs().actFuncify(this.values, this.actFunc);
+		return this.values;
+	}
+
+	@Benchmark
+	public double[] actFuncPrimeify() {
+		System.arraycopy(this.source, 0, this.values, 0, this.length);
+		ActFuncs.getActFuncs().actFuncPrimeify(this.values, this.actFunc);
+		return this.values;
+	}
+
+	@Benchmark
+	public double[] actFuncifyWithPrime() {
+		System.arraycopy(this.source, 0, this.values, 0, this.length);
+		ActFuncs.getActFuncs().actFuncify(this.values, 0, this.length, this.primes, 0, this.actFunc);
+		return this.primes;
+	}
+}
@@ -0,0 +1,55 @@
+package benchmark.jmh;
+
+import core.Evaluation;
+import core.layer.ConvEngine;
+import core.network.ConvolutionalNetwork;
+import core.network.InferenceNetwork;
+import core.network.Network;
+import core.network.InferencePrecision;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EvaluationBenchmark {
+
+	private static final int calibrationCount = 500;
+
+	@Param({"DIRECT", "IM2COL"})
+	public ConvEngine engine;
+
+	// TRAINING evaluates the network as it trains, the others freeze it into an InferenceNetwork at that precision,
+	// INT8 calibrated on the first images of the test set
+	@Param({"TRAINING", "DOUBLE", "FLOAT", "FLOAT_DOUBLE_SUMS", "INT8"})
+	public String network;
+
+	private SyntheticMnist testSet;
+	private Network net;
+
+	@Setup
+	public void setup() {
+		// the size of the MNIST test set
+		this.testSet = new SyntheticMnist(10000, 2);
+		ConvolutionalNetwork trained = SyntheticMnist.network(this.engine, 1);
+		double[] calibration = new double[calibrationCount * this.testSet.getNumInputs()];
+		for (int i = 0; i < calibrationCount; i++) {
+			this.testSet.copyInput(i, calibration, i * this.testSet.getNumInputs());
+		}
+		this.net = this.network.equals("TRAINING") ? trained
+				: new InferenceNetwork(trained, 256, InferencePrecision.valueOf(this.network), calibration, calibrationCount);
+	}
+
+	@Benchmark
+	public Evaluation evaluateTestSet() {
+		return Evaluation.evaluate(this.net, this.testSet, this.testSet.size());
+	}
+}
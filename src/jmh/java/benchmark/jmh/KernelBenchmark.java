@@ -0,0 +1,89 @@
+package benchmark.jmh;
+
+import core.Kernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KernelBenchmark {
+
+	// scalar against the Vector API, which RunJmh makes available to the forked JVMs
+	@Param({"scalar", "vector"})
+	public String kernels;
+
+	@Param({"784", "65536"})
+	public int length;
+
+	private Kernels k;
+	private double[] a;
+	private double[] x;
+	private double[] y;
+	private double[] matrix;
+
+	@Setup
+	public void setup() {
+		this.k = this.kernels.equals("vector") ? Kernels.vector() : Kernels.scalar();
+		Random rand = new Random(0);
+		this.a = new double[this.length];
+		this.x = new double[this.length];
+		this.y = new double[this.length];
+		for (int n = 0; n < this.length; n++) {
+			this.a[n] = rand.nextGaussian();
+			this.x[n] = 20 * rand.nextGaussian();
+		}
+		// a fully connected layer with ten outputs
+		this.matrix = new double[10 * this.length];
+		for (int n = 0; n < this.matrix.length; n++) {
+			this.matrix[n] = rand.nextGaussian();
+		}
+	}
+
+	@Benchmark
+	public double dot() {
+		return this.k.dot(this.a, 0, this.x, 0, this.length);
+	}
+
+	@Benchmark
+	public double[] axpy() {
+		this.k.axpy(1e-9, this.x, 0, this.y, 0, this.length);
+		return this.y;
+	}
+
+	@Benchmark
+	public double[] gemv() {
+		this.k.gemv(this.matrix, 0, 10, this.length, this.x, 0, this.y, 0);
+		return this.y;
+	}
+
+	@Benchmark
+	public double[] relu() {
+		System.arraycopy(this.x, 0, this.y, 0, this.length);
+		this.k.relu(this.y, 0, this.length);
+		return this.y;
+	}
+
+	@Benchmark
+	public double[] reluPrime() {
+		System.arraycopy(this.x, 0, this.y, 0, this.length);
+		this.k.reluPrime(this.y, 0, this.length);
+		return this.y;
+	}
+
+	@Benchmark
+	public double[] reluAndPrime() {
+		System.arraycopy(this.x, 0, this.y, 0, this.length);
+		this.k.reluAndPrime(this.y, 0, this.length, this.a, 0);
+		return this.y;
+	}
+}
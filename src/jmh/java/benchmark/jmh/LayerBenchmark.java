@@ -0,0 +1,89 @@
+package benchmark.jmh;
+
+import core.ActFunc;
+import core.Tensor;
+import core.layer.ConvEngine;
+import core.layer.ConvMode;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.Layer;
+import core.layer.LayerParameters;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayerBenchmark {
+
+	@Param({"CONV_DIRECT", "CONV_IM2COL", "CONV_DIRECT_MULTI_CHANNEL", "CONV_MULTI_CHANNEL", "CONV_WIDE_DIRECT", "CONV_WIDE_IM2COL",
+			"POOL_MAX", "POOL_AVG", "FULL"})
+	public String layer;
+
+	// input width x height x depth, at the shapes the layers see in RunTrain's network and a wider MNIST one
+	@Param({"28x28x1", "14x14x4", "12x12x3", "6x6x9"})
+	public String shape;
+
+	private Layer l;
+	private Tensor x;
+	private Tensor error;
+
+	@Setup
+	public void setup() {
+		String[] dims = this.shape.split("x");
+		int[] inputSize = new int[]{Integer.parseInt(dims[0]), Integer.parseInt(dims[1]), Integer.parseInt(dims[2])};
+		LayerParameters params = switch (this.layer) {
+			case "CONV_DIRECT" -> new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, ConvEngine.DIRECT);
+			case "CONV_IM2COL" -> new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, ConvEngine.IM2COL);
+			case "CONV_DIRECT_MULTI_CHANNEL" -> new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, ConvEngine.DIRECT, ConvMode.MULTI_CHANNEL, true);
+			case "CONV_MULTI_CHANNEL" -> new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, ConvEngine.IM2COL, ConvMode.MULTI_CHANNEL, true);
+			// radius 3 with padding 2, where the engines' speedup differs most
+			case "CONV_WIDE_DIRECT" -> new ConvolutionalLayerParameters(3, 8, 2, ActFunc.RELU, ConvEngine.DIRECT);
+			case "CONV_WIDE_IM2COL" -> new ConvolutionalLayerParameters(3, 8, 2, ActFunc.RELU, ConvEngine.IM2COL);
+			case "POOL_MAX" -> new PoolLayerParameters(2, 2, PoolType.MAX);
+			case "POOL_AVG" -> new PoolLayerParameters(2, 2, PoolType.AVG);
+			case "FULL" -> new FullLayerParameters(10, ActFunc.SIGMOID);
+			default -> throw new IllegalArgumentException(this.layer);
+		};
+		this.l = params.makeLayer(inputSize);
+		this.l.setupLasts(1);
+		this.l.setupGradient();
+
+		Random rand = new Random(0);
+		this.x = new Tensor(inputSize);
+		for (int n = 0; n < this.x.length(); n++) {
+			this.x.data[n] = rand.nextDouble();
+		}
+		this.error = new Tensor(this.l.layerParam.outputSize);
+		for (int n = 0; n < this.error.length(); n++) {
+			this.error.data[n] = rand.nextDouble() - 0.5;
+		}
+		this.l.evaluate(this.x, 0);
+	}
+
+	@Benchmark
+	public Tensor forward() {
+		return this.l.evaluate(this.x, 0);
+	}
+
+	@Benchmark
+	public Tensor infer() {
+		return this.l.infer(this.x);
+	}
+
+	@Benchmark
+	public Tensor backward() {
+		return this.l.backward(this.error, this.l.gradient, 0, true);
+	}
+}
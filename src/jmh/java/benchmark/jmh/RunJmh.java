@@ -0,0 +1,25 @@
+package benchmark.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class RunJmh {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		// the usual JMH command line, with allocation profiling (-prof gc) always on and the
+		// Vector API module added to every fork so the vector kernels are the ones measured
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class)
+				.jvmArgsAppend("--add-modules=jdk.incubator.vector")
+				.forks(commandLine.getForkCount().orElse(1))
+				.warmupIterations(commandLine.getWarmupIterations().orElse(3))
+				.measurementIterations(commandLine.getMeasurementIterations().orElse(5))
+				.build()).run();
+	}
+}
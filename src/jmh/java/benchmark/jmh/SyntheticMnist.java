@@ -0,0 +1,89 @@
+package benchmark.jmh;
+
+import core.ActFunc;
+import core.data.IndexedDataset;
+import core.layer.ConvEngine;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.LayerParameters;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import core.network.ConvolutionalNetwork;
+import core.network.ConvolutionalNetworkParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SyntheticMnist implements IndexedDataset {
+
+	// MNIST shaped stand-in: 28x28 unsigned byte images with a stroke that depends on the label, so no files are needed
+	private static final int side = 28;
+	private static final int numClasses = 10;
+
+	private final byte[] pixels;
+	private final int[] labels;
+
+	public SyntheticMnist(int size, long seed) {
+		Random rand = new Random(seed);
+		this.pixels = new byte[size * side * side];
+		this.labels = new int[size];
+		for (int n = 0; n < size; n++) {
+			int label = rand.nextInt(numClasses);
+			this.labels[n] = label;
+			for (int j = 0; j < side; j++) {
+				int i = (j * (label + 1) / 3 + rand.nextInt(3)) % side;
+				this.pixels[n * side * side + i + j * side] = (byte) (128 + rand.nextInt(128));
+			}
+		}
+	}
+
+	@Override
+	public int getNumInputs() {
+		return side * side;
+	}
+
+	@Override
+	public int getNumOutputs() {
+		return numClasses;
+	}
+
+	@Override
+	public int size() {
+		return this.labels.length;
+	}
+
+	@Override
+	public int label(int index) {
+		return this.labels[index];
+	}
+
+	@Override
+	public void copyInput(int index, double[] into, int offset) {
+		int base = index * side * side;
+		for (int p = 0; p < side * side; p++) {
+			into[offset + p] = (this.pixels[base + p] & 0xFF) / 256.0;
+		}
+	}
+
+	@Override
+	public void copyAnswer(int index, double[] into, int offset) {
+		for (int i = 0; i < numClasses; i++) {
+			into[offset + i] = i == this.labels[index] ? 1.0 : 0.0;
+		}
+	}
+
+	public static ConvolutionalNetwork network(ConvEngine engine, int batchSize) {
+		// the layout RunTrain uses
+		List<LayerParameters> layerParams = new ArrayList<>(List.of(
+				new ConvolutionalLayerParameters(2, 3, 0, ActFunc.RELU, engine),
+				new PoolLayerParameters(2, 2, PoolType.AVG),
+				new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, engine),
+				new PoolLayerParameters(3, 2, PoolType.AVG),
+				new ConvolutionalLayerParameters(2, 3, 1, ActFunc.RELU, engine),
+				new PoolLayerParameters(6, 6, PoolType.MAX),
+				new FullLayerParameters(10, ActFunc.SIGMOID)
+		));
+		return new ConvolutionalNetwork(new ConvolutionalNetworkParameters(new int[]{side, side, 1}, numClasses, layerParams, batchSize));
+	}
+}
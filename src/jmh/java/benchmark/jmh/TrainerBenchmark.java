@@ -0,0 +1,48 @@
+package benchmark.jmh;
+
+import core.Trainer;
+import core.layer.ConvEngine;
+import core.network.ConvolutionalNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrainerBenchmark {
+
+	@Param({"1", "10", "32"})
+	public int batchSize;
+
+	@Param({"DIRECT", "IM2COL"})
+	public ConvEngine engine;
+
+	private ConvolutionalNetwork net;
+	private Trainer trainer;
+
+	@Setup
+	public void setup() {
+		SyntheticMnist data = new SyntheticMnist(2000, 1);
+		this.net = SyntheticMnist.network(this.engine, this.batchSize);
+		this.trainer = new Trainer(0.1, this.net, data, this.batchSize, 0, 1, 7);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.trainer.shutdown();
+	}
+
+	@Benchmark
+	public boolean trainStep() {
+		return this.trainer.trainStep(this.net);
+	}
+}
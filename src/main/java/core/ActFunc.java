@@ -1,5 +1,6 @@
 package core;
 
 public enum ActFunc {
-	SIGMOID, RELU, IDENTITY
+	// model files store the ordinal, so new functions only go on the end
+	SIGMOID, RELU, IDENTITY, TANH, LEAKY_RELU, SOFTMAX
 }
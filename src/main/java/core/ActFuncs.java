@@ -4,27 +4,38 @@ import java.util.Arrays;
 
 public final class ActFuncs {
 
-	private static double[] sigmoidValues;
-	private static double[] sigmoidPrimeValues;
-	private static final int numApproximations = 1000000;
-	private static final int approxRange = 150;
-	private static final double approxIndexMult = ((double) numApproximations) / (2.0 * ((double) approxRange));
+	// the logistic function 1 / (1 + e^-u) on [-logisticRange, logisticRange] as one cubic Hermite polynomial
+	// per interval between knots, four coefficients each; 20 KB, so it stays in cache where the old million
+	// entry tables did not, and it is within 10^-8 of the exact value instead of a step function
+	private static final int logisticRange = 20;
+	private static final int knotsPerUnit = 16;
+	private static final int numIntervals = 2 * logisticRange * knotsPerUnit;
+	private static final double leakySlope = 0.01;
 
-	private static ActFuncs actFuncs;
+	// built during class initialization, which the JVM guarantees every thread sees complete
+	private static final ActFuncs actFuncs = new ActFuncs();
+
+	private final double[] logisticCoefficients;
 
 	private ActFuncs() {
-		sigmoidValues = new double[numApproximations];
-		sigmoidPrimeValues = new double[numApproximations];
-		for (int i = 0; i < numApproximations; i++) {
-			sigmoidValues[i] = slowSigmoid(2.0 * approxRange * (i - numApproximations/2.0) / numApproximations);
-			sigmoidPrimeValues[i] = slowSigmoidPrime(2.0 * approxRange * (i - numApproximations/2.0) / numApproximations);
+		// interval i lives at 4 * (i + 1), between the constant 0 and 1 pieces
+		this.logisticCoefficients = new double[4 * (numIntervals + 2)];
+		for (int i = 0; i < numIntervals; i++) {
+			// values and slopes (per interval, not per unit) at both ends of the interval
+			double p0 = slowLogistic((double) i / knotsPerUnit - logisticRange);
+			double p1 = slowLogistic((double) (i + 1) / knotsPerUnit - logisticRange);
+			double m0 = p0 * (1 - p0) / knotsPerUnit;
+			double m1 = p1 * (1 - p1) / knotsPerUnit;
+			int c = 4 * (i + 1);
+			this.logisticCoefficients[c] = p0;
+			this.logisticCoefficients[c + 1] = m0;
+			this.logisticCoefficients[c + 2] = 3 * (p1 - p0) - 2 * m0 - m1;
+			this.logisticCoefficients[c + 3] = 2 * (p0 - p1) + m0 + m1;
 		}
+		this.logisticCoefficients[4 * (numIntervals + 1)] = 1;
 	}
 
 	public static ActFuncs getActFuncs() {
-		if (actFuncs == null) {
-			actFuncs = new ActFuncs();
-		}
 		return actFuncs;
 	}
 
@@ -33,39 +44,131 @@ public final class ActFuncs {
 			case SIGMOID -> sigmoid(x);
 			case RELU -> relu(x);
 			case IDENTITY -> identity(x);
+			case TANH -> tanh(x);
+			case LEAKY_RELU -> leakyRelu(x);
+			case SOFTMAX -> throw vectorOnly();
 		};
 	}
 
 	public double actFuncPrime(double x, ActFunc actFunc) {
 		return switch (actFunc) {
-			case SIGMOID -> sigmoidPrime(x);
+			case SIGMOID -> sigmoidPrime(sigmoid(x));
 			case RELU -> reluPrime(x);
 			case IDENTITY -> identityPrime();
+			case TANH -> tanhPrime(tanh(x));
+			case LEAKY_RELU -> leakyReluPrime(x);
+			case SOFTMAX -> throw vectorOnly();
 		};
 	}
 
 	public void actFuncify(double[] w, ActFunc actFunc) {
+		this.actFuncify(w, 0, w.length, actFunc);
+	}
+
+	public void actFuncify(double[] w, int offset, int length, ActFunc actFunc) {
+		// SOFTMAX treats the range as a single vector
+		switch (actFunc) {
+			case SIGMOID -> sigmoid(w, offset, length);
+			case RELU -> Kernels.getKernels().relu(w, offset, length);
+			case IDENTITY -> identify();
+			case TANH -> tanh(w, offset, length);
+			case LEAKY_RELU -> leakyRelu(w, offset, length);
+			case SOFTMAX -> softmax(w, offset, length);
+		}
+	}
+
+	public void actFuncify(float[] w, int offset, int length, ActFunc actFunc) {
+		// float32 inference; each value is computed in double and rounded once, SOFTMAX again takes the range as one vector
 		switch (actFunc) {
-			case SIGMOID -> sigmoid(w);
-			case RELU -> relu(w);
+			case SIGMOID -> sigmoid(w, offset, length);
+			case RELU -> relu(w, offset, length);
 			case IDENTITY -> identify();
+			case TANH -> tanh(w, offset, length);
+			case LEAKY_RELU -> leakyRelu(w, offset, length);
+			case SOFTMAX -> softmax(w, offset, length);
+		}
+	}
+
+	public void actFuncify(double[] w, int offset, int length, double[] prime, int primeOffset, ActFunc actFunc) {
+		// fused forward pass: w gets the activation and prime whatever backward needs from it, which is the
+		// derivative for the elementwise functions and the output itself for SOFTMAX (see delta)
+		switch (actFunc) {
+			case SIGMOID -> sigmoid(w, offset, length, prime, primeOffset);
+			case RELU -> Kernels.getKernels().reluAndPrime(w, offset, length, prime, primeOffset);
+			case IDENTITY -> Arrays.fill(prime, primeOffset, primeOffset + length, 1);
+			case TANH -> tanh(w, offset, length, prime, primeOffset);
+			case LEAKY_RELU -> leakyRelu(w, offset, length, prime, primeOffset);
+			case SOFTMAX -> {
+				softmax(w, offset, length);
+				System.arraycopy(w, offset, prime, primeOffset, length);
+			}
 		}
 	}
 
 	public void actFuncPrimeify(double[] x, ActFunc actFunc) {
 		switch (actFunc) {
 			case SIGMOID -> sigmoidPrime(x);
-			case RELU -> reluPrime(x);
+			case RELU -> Kernels.getKernels().reluPrime(x, 0, x.length);
 			case IDENTITY -> identityPrime(x);
+			case TANH -> tanhPrime(x);
+			case LEAKY_RELU -> leakyReluPrime(x);
+			case SOFTMAX -> throw vectorOnly();
 		}
 	}
 
-	private double slowSigmoid(double x) {
-		return Math.exp(x / 10.0) / (1 + Math.exp(x / 10.0));
+	public void delta(double[] error, int errorOffset, double[] prime, int primeOffset, double[] delta, int deltaOffset, int length, ActFunc actFunc) {
+		// error with respect to the pre-activation, from what the fused actFuncify left in prime
+		if (actFunc == ActFunc.SOFTMAX) {
+			// the Jacobian of softmax is diag(y) - y y^T
+			double ey = 0;
+			for (int i = 0; i < length; i++) {
+				ey += error[errorOffset + i] * prime[primeOffset + i];
+			}
+			for (int i = 0; i < length; i++) {
+				delta[deltaOffset + i] = prime[primeOffset + i] * (error[errorOffset + i] - ey);
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				delta[deltaOffset + i] = error[errorOffset + i] * prime[primeOffset + i];
+			}
+		}
+	}
+
+	private static IllegalArgumentException vectorOnly() {
+		return new IllegalArgumentException("SOFTMAX is only defined on a whole vector");
+	}
+
+	private static double slowLogistic(double u) {
+		return 1 / (1 + Math.exp(-u));
+	}
+
+	private double logistic(double u) {
+		// no branches, since saturated inputs are common and mispredict: the index is clamped onto the constant
+		// pieces either side of the range, where the function is within 2.1e-9 of 0 or 1; NaN or infinite u give NaN
+		double t = u * knotsPerUnit + logisticRange * knotsPerUnit;
+		int i = Math.max(-1, Math.min(numIntervals, (int) t));
+		double f = t - i;
+		int c = 4 * (i + 1);
+		return this.logisticCoefficients[c] + f * (this.logisticCoefficients[c + 1]
+				+ f * (this.logisticCoefficients[c + 2] + f * this.logisticCoefficients[c + 3]));
+	}
+
+	// sigmoid is the logistic function stretched by 10, as it always was, so saved networks keep their meaning
+	private double sigmoid(double x) {
+		return logistic(0.1 * x);
+	}
+
+	private double sigmoidPrime(double s) {
+		// s (1 - s) / 10, written around 1/2 since C2 made the plain product measurably slower in the fused loop
+		return 0.1 * (0.25 - (s - 0.5) * (s - 0.5));
+	}
+
+	private double tanh(double x) {
+		return 2 * logistic(2 * x) - 1;
 	}
 
-	private double slowSigmoidPrime(double v) {
-		return Math.exp(v / 10.0) / (10.0 * (1 + Math.exp(v / 10.0))*(1 + Math.exp(v / 10.0)));
+	private double tanhPrime(double t) {
+		return 1 - t * t;
 	}
 
 	private double relu(double x) {
@@ -76,60 +179,140 @@ public final class ActFuncs {
 		return x > 0 ? 1 : 0;
 	}
 
-	private void sigmoid(double[] input) {
-		for (int i = 0; i < input.length; i++) {
+	private double leakyRelu(double x) {
+		return x > 0 ? x : leakySlope * x;
+	}
+
+	private double leakyReluPrime(double x) {
+		return x > 0 ? 1 : leakySlope;
+	}
+
+	private double identity(double x) {
+		return x;
+	}
+
+	private double identityPrime() {
+		return 1;
+	}
+
+	private void identify() {
+	}
+
+	private void sigmoid(double[] input, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
 			input[i] = sigmoid(input[i]);
 		}
 	}
 
-	private void relu(double[] input) {
-		for (int i = 0; i < input.length; i++) {
-			input[i] = relu(input[i]);
+	private void sigmoid(double[] input, int offset, int length, double[] prime, int primeOffset) {
+		for (int i = 0; i < length; i++) {
+			double s = sigmoid(input[offset + i]);
+			input[offset + i] = s;
+			prime[primeOffset + i] = sigmoidPrime(s);
 		}
 	}
 
 	private void sigmoidPrime(double[] input) {
 		for (int i = 0; i < input.length; i++) {
-			input[i] = sigmoidPrime(input[i]);
+			input[i] = sigmoidPrime(sigmoid(input[i]));
+		}
+	}
+
+	private void tanh(double[] input, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = tanh(input[i]);
 		}
 	}
 
-	private void reluPrime(double[] input) {
+	private void tanh(double[] input, int offset, int length, double[] prime, int primeOffset) {
+		for (int i = 0; i < length; i++) {
+			double t = tanh(input[offset + i]);
+			input[offset + i] = t;
+			prime[primeOffset + i] = tanhPrime(t);
+		}
+	}
+
+	private void tanhPrime(double[] input) {
 		for (int i = 0; i < input.length; i++) {
-			input[i] = reluPrime(input[i]);
+			input[i] = tanhPrime(tanh(input[i]));
 		}
 	}
 
-	private double identity(double x) {
-		return x;
+	private void leakyRelu(double[] input, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = leakyRelu(input[i]);
+		}
 	}
 
-	private double identityPrime() {
-		return 1;
+	private void leakyRelu(double[] input, int offset, int length, double[] prime, int primeOffset) {
+		for (int i = 0; i < length; i++) {
+			double x = input[offset + i];
+			input[offset + i] = leakyRelu(x);
+			prime[primeOffset + i] = leakyReluPrime(x);
+		}
 	}
 
-	private void identify() {
+	private void leakyReluPrime(double[] input) {
+		for (int i = 0; i < input.length; i++) {
+			input[i] = leakyReluPrime(input[i]);
+		}
 	}
 
 	private void identityPrime(double[] input) {
 		Arrays.fill(input, 1);
 	}
 
-	private double sigmoid(double x) {
-		return sigmoidValues[indexOfApprox(x)];
+	private void sigmoid(float[] input, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = (float) sigmoid(input[i]);
+		}
+	}
+
+	private void relu(float[] input, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = input[i] > 0 ? input[i] : 0;
+		}
 	}
 
-	private double sigmoidPrime(double x) {
-		return sigmoidPrimeValues[indexOfApprox(x)];
+	private void tanh(float[] input, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = (float) tanh(input[i]);
+		}
 	}
 
-	private int indexOfApprox(double x) {
-		if (x < -1 * approxRange) {
-			return 0;
-		} else if (x > approxRange) {
-			return numApproximations - 1;
-		} else {
-			return (int) (approxIndexMult * (x + approxRange));
+	private void leakyRelu(float[] input, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = (float) leakyRelu(input[i]);
+		}
+	}
+
+	private void softmax(float[] input, int offset, int length) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = offset; i < offset + length; i++) {
+			max = Math.max(max, input[i]);
+		}
+		double sum = 0;
+		for (int i = offset; i < offset + length; i++) {
+			sum += Math.exp(input[i] - max);
+		}
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = (float) (Math.exp(input[i] - max) / sum);
+		}
+	}
+
+	private void softmax(double[] input, int offset, int length) {
+		// shifted by the max so exp cannot overflow
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = offset; i < offset + length; i++) {
+			max = Math.max(max, input[i]);
+		}
+		double sum = 0;
+		for (int i = offset; i < offset + length; i++) {
+			input[i] = Math.exp(input[i] - max);
+			sum += input[i];
+		}
+		for (int i = offset; i < offset + length; i++) {
+			input[i] /= sum;
 		}
 	}
 }
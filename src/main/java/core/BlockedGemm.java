@@ -0,0 +1,55 @@
+package core;
+
+abstract class BlockedGemm {
+
+	// register tile computed by the micro kernel, square so A and B panels pack the same way
+	static final int MR = 4;
+	static final int NR = 4;
+
+	// cache blocks: a packed mc x kc panel of A stays in L2, a kc x NR sliver of B in L1
+	private final int mcBlock;
+	private final int kcBlock;
+	private final int ncBlock;
+	private final ThreadLocal<Object[]> packs;
+
+	BlockedGemm(int mcBlock, int kcBlock, int ncBlock) {
+		this.mcBlock = mcBlock;
+		this.kcBlock = kcBlock;
+		this.ncBlock = ncBlock;
+		this.packs = ThreadLocal.withInitial(() -> new Object[]{this.newPack(mcBlock * kcBlock), this.newPack(kcBlock * ncBlock)});
+	}
+
+	abstract Object newPack(int length);
+
+	// the MR wide panels of a rows x kc block of source, each laid out kc steps of MR values
+	abstract void pack(int rows, int kc, Object source, int offset, int rowStride, int colStride, Object pack);
+
+	// adds the rows x columns corner of one A panel times one B panel to C
+	abstract void microKernel(int kc, Object aPack, int ai, Object bPack, int bi, Object c, int ci, int ldc, int rows, int columns);
+
+	// C += A * B where A is m x k, B is k x n and C is m x n row-major with row stride ldc;
+	// A and B are addressed through row and column strides so transposed operands need no copy
+	final void multiply(int m, int n, int k,
+						Object a, int aOffset, int aRowStride, int aColStride,
+						Object b, int bOffset, int bRowStride, int bColStride,
+						Object c, int cOffset, int ldc) {
+		Object[] p = this.packs.get();
+		for (int jc = 0; jc < n; jc += this.ncBlock) {
+			int nc = Math.min(this.ncBlock, n - jc);
+			for (int pc = 0; pc < k; pc += this.kcBlock) {
+				int kc = Math.min(this.kcBlock, k - pc);
+				// B's panels are its columns, so it packs as its transpose
+				this.pack(nc, kc, b, bOffset + pc * bRowStride + jc * bColStride, bColStride, bRowStride, p[1]);
+				for (int ic = 0; ic < m; ic += this.mcBlock) {
+					int mc = Math.min(this.mcBlock, m - ic);
+					this.pack(mc, kc, a, aOffset + ic * aRowStride + pc * aColStride, aRowStride, aColStride, p[0]);
+					for (int jp = 0; jp < nc; jp += NR) {
+						for (int ip = 0; ip < mc; ip += MR) {
+							this.microKernel(kc, p[0], ip * kc, p[1], jp * kc, c, cOffset + (ic + ip) * ldc + jc + jp, ldc, Math.min(MR, mc - ip), Math.min(NR, nc - jp));
+						}
+					}
+				}
+			}
+		}
+	}
+}
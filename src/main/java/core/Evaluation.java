@@ -0,0 +1,111 @@
+package core;
+
+import core.data.IndexedDataset;
+import core.network.Network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class Evaluation {
+
+	private final int numClasses;
+	// confusion[label][guess]
+	private final long[][] confusion;
+	private final List<Integer> wrongIndices = new ArrayList<>();
+
+	private static final int chunkSize = 256;
+
+	public Evaluation(int numClasses) {
+		this.numClasses = numClasses;
+		this.confusion = new long[numClasses][numClasses];
+	}
+
+	public void record(int index, int label, int guess) {
+		this.confusion[label][guess]++;
+		if (label != guess) {
+			this.wrongIndices.add(index);
+		}
+	}
+
+	public Evaluation merge(Evaluation other) {
+		for (int label = 0; label < this.numClasses; label++) {
+			for (int guess = 0; guess < this.numClasses; guess++) {
+				this.confusion[label][guess] += other.confusion[label][guess];
+			}
+		}
+		this.wrongIndices.addAll(other.wrongIndices);
+		return this;
+	}
+
+	public long getCorrect() {
+		long correct = 0;
+		for (int c = 0; c < this.numClasses; c++) {
+			correct += this.confusion[c][c];
+		}
+		return correct;
+	}
+
+	public long getTotal() {
+		long total = 0;
+		for (int c = 0; c < this.numClasses; c++) {
+			total += this.getClassTotal(c);
+		}
+		return total;
+	}
+
+	public long getClassTotal(int label) {
+		long total = 0;
+		for (long n : this.confusion[label]) {
+			total += n;
+		}
+		return total;
+	}
+
+	public double percentCorrect() {
+		long total = this.getTotal();
+		return total == 0 ? 0 : ((double) this.getCorrect()) / total;
+	}
+
+	public double classPercentCorrect(int label) {
+		long total = this.getClassTotal(label);
+		return total == 0 ? 0 : ((double) this.confusion[label][label]) / total;
+	}
+
+	public long getConfusion(int label, int guess) {
+		return this.confusion[label][guess];
+	}
+
+	public List<Integer> getWrongIndices() {
+		return this.wrongIndices;
+	}
+
+	public int getNumClasses() {
+		return this.numClasses;
+	}
+
+	public static Evaluation evaluate(Network net, IndexedDataset data, int count) {
+		// chunks of the dataset are predicted in parallel and their confusion matrices merged in order
+		int numChunks = (count + chunkSize - 1) / chunkSize;
+		return IntStream.range(0, numChunks)
+				.parallel()
+				.mapToObj(chunk -> evaluateChunk(net, data, chunk * chunkSize, Math.min(count, (chunk + 1) * chunkSize)))
+				.reduce(Evaluation::merge)
+				.orElseGet(() -> new Evaluation(data.getNumOutputs()));
+	}
+
+	private static Evaluation evaluateChunk(Network net, IndexedDataset data, int start, int end) {
+		int numInputs = data.getNumInputs();
+		int numOutputs = data.getNumOutputs();
+		double[] batch = new double[(end - start) * numInputs];
+		for (int i = start; i < end; i++) {
+			data.copyInput(i, batch, (i - start) * numInputs);
+		}
+		double[] responses = net.predictBatch(batch, end - start);
+		Evaluation evaluation = new Evaluation(numOutputs);
+		for (int i = start; i < end; i++) {
+			evaluation.record(i, data.label(i), Utility.maxIndex(responses, (i - start) * numOutputs, numOutputs));
+		}
+		return evaluation;
+	}
+}
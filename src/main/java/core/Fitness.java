@@ -1,10 +1,11 @@
 package core;
 
+import core.data.Dataset;
 import core.network.Network;
 
 public interface Fitness {
 
 	double percentCorrect(Network net);
-	double[][] getAnswers();
-	double[][] getData();
+	Evaluation evaluate(Network net);
+	Dataset getDataset();
 }
@@ -0,0 +1,164 @@
+package core;
+
+public final class FloatGemm {
+
+	private static final BlockedGemm floatSums = blocked(false);
+	private static final BlockedGemm doubleSums = blocked(true);
+
+	private FloatGemm() {}
+
+	private static BlockedGemm blocked(boolean doubleSums) {
+		// at half the width of Gemm's doubles twice as many values fit each block
+		return new BlockedGemm(128, 512, 512) {
+			@Override
+			Object newPack(int length) {
+				return new float[length];
+			}
+
+			@Override
+			void pack(int rows, int kc, Object source, int offset, int rowStride, int colStride, Object pack) {
+				if (source instanceof double[] d) {
+					FloatGemm.pack(rows, kc, d, offset, rowStride, colStride, (float[]) pack);
+				} else {
+					FloatGemm.pack(rows, kc, (float[]) source, offset, rowStride, colStride, (float[]) pack);
+				}
+			}
+
+			@Override
+			void microKernel(int kc, Object aPack, int ai, Object bPack, int bi, Object c, int ci, int ldc, int rows, int columns) {
+				if (doubleSums) {
+					FloatGemm.microKernelDouble(kc, (float[]) aPack, ai, (float[]) bPack, bi, c, ci, ldc, rows, columns);
+				} else {
+					FloatGemm.microKernel(kc, (float[]) aPack, ai, (float[]) bPack, bi, c, ci, ldc, rows, columns);
+				}
+			}
+		};
+	}
+
+	// C += A * B as in Gemm.multiply; with doubleSums each kc long stretch of a dot product is summed in double
+	// before it is rounded into C, which keeps long reductions as accurate as the double path. Each of a, b and c is
+	// a float[] or a double[], double operands are rounded to float as they are packed
+	public static void multiply(int m, int n, int k,
+								Object a, int aOffset, int aRowStride, int aColStride,
+								Object b, int bOffset, int bRowStride, int bColStride,
+								Object c, int cOffset, int ldc, boolean doubleSums) {
+		(doubleSums ? FloatGemm.doubleSums : floatSums).multiply(m, n, k, a, aOffset, aRowStride, aColStride, b, bOffset, bRowStride, bColStride, c, cOffset, ldc);
+	}
+
+	private static void pack(int rows, int kc, float[] source, int offset, int rowStride, int colStride, float[] pack) {
+		for (int ip = 0; ip < rows; ip += BlockedGemm.MR) {
+			int base = ip * kc;
+			for (int p = 0; p < kc; p++) {
+				for (int r = 0; r < BlockedGemm.MR; r++) {
+					pack[base + p * BlockedGemm.MR + r] = ip + r < rows ? source[offset + (ip + r) * rowStride + p * colStride] : 0;
+				}
+			}
+		}
+	}
+
+	private static void pack(int rows, int kc, double[] source, int offset, int rowStride, int colStride, float[] pack) {
+		for (int ip = 0; ip < rows; ip += BlockedGemm.MR) {
+			int base = ip * kc;
+			for (int p = 0; p < kc; p++) {
+				for (int r = 0; r < BlockedGemm.MR; r++) {
+					pack[base + p * BlockedGemm.MR + r] = ip + r < rows ? (float) source[offset + (ip + r) * rowStride + p * colStride] : 0;
+				}
+			}
+		}
+	}
+
+	private static void microKernel(int kc, float[] aPack, int ai, float[] bPack, int bi, Object c, int ci, int ldc, int rows, int columns) {
+		float c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+		float c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+		float c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+		float c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+		for (int p = 0; p < kc; p++) {
+			float a0 = aPack[ai];
+			float a1 = aPack[ai + 1];
+			float a2 = aPack[ai + 2];
+			float a3 = aPack[ai + 3];
+			float b0 = bPack[bi];
+			float b1 = bPack[bi + 1];
+			float b2 = bPack[bi + 2];
+			float b3 = bPack[bi + 3];
+			c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+			c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+			c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+			c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+			ai += BlockedGemm.MR;
+			bi += BlockedGemm.NR;
+		}
+		addRow(c, ci, columns, c00, c01, c02, c03);
+		if (rows > 1) {
+			addRow(c, ci + ldc, columns, c10, c11, c12, c13);
+		}
+		if (rows > 2) {
+			addRow(c, ci + 2 * ldc, columns, c20, c21, c22, c23);
+		}
+		if (rows > 3) {
+			addRow(c, ci + 3 * ldc, columns, c30, c31, c32, c33);
+		}
+	}
+
+	private static void microKernelDouble(int kc, float[] aPack, int ai, float[] bPack, int bi, Object c, int ci, int ldc, int rows, int columns) {
+		// products of two floats are exact in double, so only the sums round
+		double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+		double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+		double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+		double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+		for (int p = 0; p < kc; p++) {
+			double a0 = aPack[ai];
+			double a1 = aPack[ai + 1];
+			double a2 = aPack[ai + 2];
+			double a3 = aPack[ai + 3];
+			double b0 = bPack[bi];
+			double b1 = bPack[bi + 1];
+			double b2 = bPack[bi + 2];
+			double b3 = bPack[bi + 3];
+			c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+			c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+			c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+			c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+			ai += BlockedGemm.MR;
+			bi += BlockedGemm.NR;
+		}
+		addRow(c, ci, columns, c00, c01, c02, c03);
+		if (rows > 1) {
+			addRow(c, ci + ldc, columns, c10, c11, c12, c13);
+		}
+		if (rows > 2) {
+			addRow(c, ci + 2 * ldc, columns, c20, c21, c22, c23);
+		}
+		if (rows > 3) {
+			addRow(c, ci + 3 * ldc, columns, c30, c31, c32, c33);
+		}
+	}
+
+	private static void addRow(Object c, int ci, int columns, double v0, double v1, double v2, double v3) {
+		// a float sum of two floats rounds the same as their double sum rounded to float, so float sums lose nothing here
+		if (c instanceof double[] d) {
+			d[ci] += v0;
+			if (columns > 1) {
+				d[ci + 1] += v1;
+			}
+			if (columns > 2) {
+				d[ci + 2] += v2;
+			}
+			if (columns > 3) {
+				d[ci + 3] += v3;
+			}
+			return;
+		}
+		float[] f = (float[]) c;
+		f[ci] = (float) (f[ci] + v0);
+		if (columns > 1) {
+			f[ci + 1] = (float) (f[ci + 1] + v1);
+		}
+		if (columns > 2) {
+			f[ci + 2] = (float) (f[ci + 2] + v2);
+		}
+		if (columns > 3) {
+			f[ci + 3] = (float) (f[ci + 3] + v3);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package core;
+
+public final class Gemm {
+
+	private static final BlockedGemm blocked = new BlockedGemm(64, 256, 512) {
+		@Override
+		Object newPack(int length) {
+			return new double[length];
+		}
+
+		@Override
+		void pack(int rows, int kc, Object source, int offset, int rowStride, int colStride, Object pack) {
+			Gemm.pack(rows, kc, (double[]) source, offset, rowStride, colStride, (double[]) pack);
+		}
+
+		@Override
+		void microKernel(int kc, Object aPack, int ai, Object bPack, int bi, Object c, int ci, int ldc, int rows, int columns) {
+			Gemm.microKernel(kc, (double[]) aPack, ai, (double[]) bPack, bi, (double[]) c, ci, ldc, rows, columns);
+		}
+	};
+
+	private Gemm() {}
+
+	// C += A * B as in BlockedGemm.multiply
+	public static void multiply(int m, int n, int k,
+								double[] a, int aOffset, int aRowStride, int aColStride,
+								double[] b, int bOffset, int bRowStride, int bColStride,
+								double[] c, int cOffset, int ldc) {
+		blocked.multiply(m, n, k, a, aOffset, aRowStride, aColStride, b, bOffset, bRowStride, bColStride, c, cOffset, ldc);
+	}
+
+	private static void pack(int rows, int kc, double[] source, int offset, int rowStride, int colStride, double[] pack) {
+		for (int ip = 0; ip < rows; ip += BlockedGemm.MR) {
+			int base = ip * kc;
+			for (int p = 0; p < kc; p++) {
+				for (int r = 0; r < BlockedGemm.MR; r++) {
+					pack[base + p * BlockedGemm.MR + r] = ip + r < rows ? source[offset + (ip + r) * rowStride + p * colStride] : 0;
+				}
+			}
+		}
+	}
+
+	private static void microKernel(int kc, double[] aPack, int ai, double[] bPack, int bi, double[] c, int ci, int ldc, int rows, int columns) {
+		double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+		double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+		double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+		double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+		for (int p = 0; p < kc; p++) {
+			double a0 = aPack[ai];
+			double a1 = aPack[ai + 1];
+			double a2 = aPack[ai + 2];
+			double a3 = aPack[ai + 3];
+			double b0 = bPack[bi];
+			double b1 = bPack[bi + 1];
+			double b2 = bPack[bi + 2];
+			double b3 = bPack[bi + 3];
+			c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+			c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+			c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+			c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+			ai += BlockedGemm.MR;
+			bi += BlockedGemm.NR;
+		}
+		if (rows == BlockedGemm.MR && columns == BlockedGemm.NR) {
+			c[ci] += c00; c[ci + 1] += c01; c[ci + 2] += c02; c[ci + 3] += c03;
+			ci += ldc;
+			c[ci] += c10; c[ci + 1] += c11; c[ci + 2] += c12; c[ci + 3] += c13;
+			ci += ldc;
+			c[ci] += c20; c[ci + 1] += c21; c[ci + 2] += c22; c[ci + 3] += c23;
+			ci += ldc;
+			c[ci] += c30; c[ci + 1] += c31; c[ci + 2] += c32; c[ci + 3] += c33;
+			return;
+		}
+		addRow(c, ci, columns, c00, c01, c02, c03);
+		if (rows > 1) {
+			addRow(c, ci + ldc, columns, c10, c11, c12, c13);
+		}
+		if (rows > 2) {
+			addRow(c, ci + 2 * ldc, columns, c20, c21, c22, c23);
+		}
+		if (rows > 3) {
+			addRow(c, ci + 3 * ldc, columns, c30, c31, c32, c33);
+		}
+	}
+
+	private static void addRow(double[] c, int ci, int columns, double v0, double v1, double v2, double v3) {
+		c[ci] += v0;
+		if (columns > 1) {
+			c[ci + 1] += v1;
+		}
+		if (columns > 2) {
+			c[ci + 2] += v2;
+		}
+		if (columns > 3) {
+			c[ci + 3] += v3;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package core;
+
+public final class Int8Gemm {
+
+	// int8 values summed exactly in int32, which holds for k up to over 130000
+	private static final int maxLevel = 127;
+
+	private Int8Gemm() {}
+
+	// C += A * B as in Gemm.multiply, for the two layouts the layers use
+	public static void multiply(int m, int n, int k,
+								byte[] a, int aOffset, int aRowStride, int aColStride,
+								byte[] b, int bOffset, int bRowStride, int bColStride,
+								int[] c, int cOffset, int ldc) {
+		Kernels kernels = Kernels.getKernels();
+		if (bColStride == 1) {
+			// contiguous rows of B add into rows of C
+			for (int i = 0; i < m; i++) {
+				for (int p = 0; p < k; p++) {
+					int alpha = a[aOffset + i * aRowStride + p * aColStride];
+					if (alpha != 0) {
+						kernels.axpy(alpha, b, bOffset + p * bRowStride, c, cOffset + i * ldc, n);
+					}
+				}
+			}
+		} else if (aColStride == 1 && bRowStride == 1) {
+			// contiguous rows of A against contiguous columns of B
+			for (int i = 0; i < m; i++) {
+				for (int j = 0; j < n; j++) {
+					c[cOffset + i * ldc + j] += kernels.dot(a, aOffset + i * aRowStride, b, bOffset + j * bColStride, k);
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("Int8Gemm needs contiguous rows of B, or contiguous rows of A and columns of B");
+		}
+	}
+
+	public static double[] quantizeRows(double[] w, int rows, int columns, byte[] q) {
+		// symmetric with one scale per row, returned so that q * scale is the value
+		double[] scales = new double[rows];
+		for (int r = 0; r < rows; r++) {
+			double max = 0;
+			for (int c = r * columns; c < (r + 1) * columns; c++) {
+				max = Math.max(max, Math.abs(w[c]));
+			}
+			scales[r] = scale(max);
+			for (int c = r * columns; c < (r + 1) * columns; c++) {
+				q[c] = (byte) Math.round(w[c] / scales[r]);
+			}
+		}
+		return scales;
+	}
+
+	public static double scale(double range) {
+		// the scale that maps [-range, range] onto the int8 levels
+		return range == 0 ? 1 : range / maxLevel;
+	}
+
+	public static void quantize(float[] x, int offset, int length, float inverseScale, byte[] q, int qOffset) {
+		// clamped, then rounded half away from zero by a truncation, which is cheaper than Math.round
+		for (int i = 0; i < length; i++) {
+			float v = Math.max(-maxLevel, Math.min(maxLevel, x[offset + i] * inverseScale));
+			q[qOffset + i] = (byte) (v + (v < 0 ? -0.5f : 0.5f));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package core;
+
+public abstract class Kernels {
+
+	private static final Kernels kernels = select();
+
+	public static Kernels getKernels() {
+		return kernels;
+	}
+
+	public static Kernels scalar() {
+		return new ScalarKernels();
+	}
+
+	public static Kernels vector() {
+		// throws when the JVM was started without --add-modules jdk.incubator.vector
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+			throw new UnsupportedOperationException("The jdk.incubator.vector module is not available");
+		}
+		try {
+			return (Kernels) Class.forName("core.VectorKernels").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new UnsupportedOperationException("Vector kernels could not be loaded", e);
+		}
+	}
+
+	private static Kernels select() {
+		try {
+			return vector();
+		} catch (UnsupportedOperationException e) {
+			return scalar();
+		}
+	}
+
+	public abstract String getName();
+
+	// sum of a[aOffset + i] * x[xOffset + i]
+	public abstract double dot(double[] a, int aOffset, double[] x, int xOffset, int length);
+
+	// y[yOffset + i] += alpha * x[xOffset + i]
+	public abstract void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+	// the float version, for weights trained in float
+	public abstract void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+	// y[yOffset + r] += sum over c of A[aOffset + r * columns + c] * x[xOffset + c], A row-major
+	public abstract void gemv(double[] A, int aOffset, int rows, int columns, double[] x, int xOffset, double[] y, int yOffset);
+
+	// the int8 versions of dot and axpy, summed in int32
+	public abstract int dot(byte[] a, int aOffset, byte[] x, int xOffset, int length);
+
+	public abstract void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length);
+
+	public abstract void relu(double[] w, int offset, int length);
+
+	public abstract void reluPrime(double[] w, int offset, int length);
+
+	// relu of w in place, with its derivative written to prime
+	public abstract void reluAndPrime(double[] w, int offset, int length, double[] prime, int primeOffset);
+}
@@ -0,0 +1,78 @@
+package core;
+
+final class ScalarKernels extends Kernels {
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public double dot(double[] a, int aOffset, double[] x, int xOffset, int length) {
+		double v = 0;
+		for (int i = 0; i < length; i++) {
+			v += a[i + aOffset] * x[i + xOffset];
+		}
+		return v;
+	}
+
+	@Override
+	public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[i + yOffset] += alpha * x[i + xOffset];
+		}
+	}
+
+	@Override
+	public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[i + yOffset] += alpha * x[i + xOffset];
+		}
+	}
+
+	@Override
+	public void gemv(double[] A, int aOffset, int rows, int columns, double[] x, int xOffset, double[] y, int yOffset) {
+		for (int r = 0; r < rows; r++) {
+			y[yOffset + r] += this.dot(A, aOffset + r * columns, x, xOffset, columns);
+		}
+	}
+
+	@Override
+	public int dot(byte[] a, int aOffset, byte[] x, int xOffset, int length) {
+		int v = 0;
+		for (int i = 0; i < length; i++) {
+			v += a[i + aOffset] * x[i + xOffset];
+		}
+		return v;
+	}
+
+	@Override
+	public void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[i + yOffset] += alpha * x[i + xOffset];
+		}
+	}
+
+	@Override
+	public void relu(double[] w, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			w[i] = w[i] > 0 ? w[i] : 0;
+		}
+	}
+
+	@Override
+	public void reluPrime(double[] w, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			w[i] = w[i] > 0 ? 1 : 0;
+		}
+	}
+
+	@Override
+	public void reluAndPrime(double[] w, int offset, int length, double[] prime, int primeOffset) {
+		for (int i = 0; i < length; i++) {
+			boolean positive = w[offset + i] > 0;
+			prime[primeOffset + i] = positive ? 1 : 0;
+			w[offset + i] = positive ? w[offset + i] : 0;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+public final class Tensor implements Serializable {
+
+	// elements are laid out with the first index fastest, i.e. (i, j, k) lives at i + j * w + k * w * h,
+	// which is the same order Network.evaluate has always used for its flat input and output arrays
+	public final double[] data;
+	public final int offset;
+	private final int[] shape;
+	private final int[] strides;
+	private final int length;
+	private final boolean contiguous;
+
+	public Tensor(int... shape) {
+		this(new double[sizeOf(shape)], 0, shape);
+	}
+
+	private Tensor(double[] data, int offset, int[] shape) {
+		this(data, offset, shape, contiguousStrides(shape));
+	}
+
+	private Tensor(double[] data, int offset, int[] shape, int[] strides) {
+		this.data = data;
+		this.offset = offset;
+		this.shape = shape.clone();
+		this.strides = strides;
+		this.length = sizeOf(shape);
+		this.contiguous = Arrays.equals(strides, contiguousStrides(shape));
+		assert offset >= 0 && (this.length == 0 || offset + this.lastIndex() < data.length);
+	}
+
+	public static Tensor wrap(double[] data, int... shape) {
+		if (sizeOf(shape) != data.length) {
+			throw new IllegalArgumentException("Cannot wrap " + data.length + " values as " + Arrays.toString(shape));
+		}
+		return new Tensor(data, 0, shape);
+	}
+
+	public static Tensor wrap(double[] data, int offset, int[] shape) {
+		if (offset < 0 || offset + sizeOf(shape) > data.length) {
+			throw new IllegalArgumentException("Cannot wrap " + Arrays.toString(shape) + " at offset " + offset + " of " + data.length + " values");
+		}
+		return new Tensor(data, offset, shape);
+	}
+
+	private static int sizeOf(int[] shape) {
+		int size = 1;
+		for (int s : shape) {
+			size *= s;
+		}
+		return size;
+	}
+
+	private static int[] contiguousStrides(int[] shape) {
+		int[] strides = new int[shape.length];
+		int stride = 1;
+		for (int d = 0; d < shape.length; d++) {
+			strides[d] = stride;
+			stride *= shape[d];
+		}
+		return strides;
+	}
+
+	private int lastIndex() {
+		int last = 0;
+		for (int d = 0; d < this.shape.length; d++) {
+			last += (this.shape[d] - 1) * this.strides[d];
+		}
+		return last;
+	}
+
+	public int rank() {
+		return this.shape.length;
+	}
+
+	public int shape(int dim) {
+		return dim < this.shape.length ? this.shape[dim] : 1;
+	}
+
+	public int[] getShape() {
+		return this.shape.clone();
+	}
+
+	public int stride(int dim) {
+		return this.strides[dim];
+	}
+
+	public int length() {
+		return this.length;
+	}
+
+	public boolean isContiguous() {
+		return this.contiguous;
+	}
+
+	public int index(int i, int j, int k) {
+		return this.offset + i * this.strides[0] + j * this.strides[1] + k * this.strides[2];
+	}
+
+	public double get(int i, int j, int k) {
+		return this.data[this.index(i, j, k)];
+	}
+
+	public void set(int i, int j, int k, double value) {
+		this.data[this.index(i, j, k)] = value;
+	}
+
+	public void add(int i, int j, int k, double value) {
+		this.data[this.index(i, j, k)] += value;
+	}
+
+	public double getOrDefault(int i, int j, int k, double def) {
+		if (i < 0 || i >= this.shape[0] || j < 0 || j >= this.shape[1] || k < 0 || k >= this.shape[2]) {
+			return def;
+		}
+		return this.data[this.index(i, j, k)];
+	}
+
+	public void setIfCan(int i, int j, int k, double value) {
+		if (i < 0 || i >= this.shape[0] || j < 0 || j >= this.shape[1] || k < 0 || k >= this.shape[2]) {
+			return;
+		}
+		this.data[this.index(i, j, k)] = value;
+	}
+
+	public Tensor reshape(int... shape) {
+		if (sizeOf(shape) != this.length) {
+			throw new IllegalArgumentException("Cannot reshape " + Arrays.toString(this.shape) + " to " + Arrays.toString(shape));
+		}
+		Tensor source = this.isContiguous() ? this : this.copy();
+		return new Tensor(source.data, source.offset, shape);
+	}
+
+	public Tensor slice(int dim, int index) {
+		// view of a single index along the last dimension, e.g. one channel of a volume or one sample of a batch
+		assert dim == this.shape.length - 1 && index >= 0 && index < this.shape[dim];
+		return new Tensor(this.data, this.offset + index * this.strides[dim], Arrays.copyOf(this.shape, dim), Arrays.copyOf(this.strides, dim));
+	}
+
+	public Tensor copy() {
+		Tensor copy = new Tensor(this.shape);
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	public void copyFrom(Tensor source) {
+		assert source.length == this.length;
+		if (this.isContiguous() && source.isContiguous()) {
+			System.arraycopy(source.data, source.offset, this.data, this.offset, this.length);
+			return;
+		}
+		for (int n = 0; n < this.length; n++) {
+			this.data[this.flatIndex(n)] = source.data[source.flatIndex(n)];
+		}
+	}
+
+	private int flatIndex(int n) {
+		int index = this.offset;
+		for (int d = 0; d < this.shape.length; d++) {
+			index += (n % this.shape[d]) * this.strides[d];
+			n /= this.shape[d];
+		}
+		return index;
+	}
+
+	public void fill(double value) {
+		if (this.isContiguous()) {
+			Arrays.fill(this.data, this.offset, this.offset + this.length, value);
+			return;
+		}
+		for (int n = 0; n < this.length; n++) {
+			this.data[this.flatIndex(n)] = value;
+		}
+	}
+
+	public double[] toArray() {
+		double[] arr = new double[this.length];
+		Tensor.wrap(arr, this.shape).copyFrom(this);
+		return arr;
+	}
+}
@@ -1,9 +1,28 @@
 package core;
 
+import core.data.Augmentation;
+import core.data.Batch;
+import core.data.BatchLoader;
+import core.data.BatchSource;
+import core.data.Dataset;
+import core.data.SampleStream;
+import core.data.StreamBatchSource;
+import core.layer.Layer;
+import core.metrics.TrainingMetrics;
 import core.network.ConvolutionalNetwork;
 import core.network.Network;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Trainer {
 
@@ -15,51 +34,134 @@ public class Trainer {
 	private double allTimeMse = 0;
 	private int mseIndex = 0;
 	private int cycle = 0;
-	private int allTimeMseCount = 0;
+	private long allTimeMseCount = 0;
 
-	private final double[][] data;
-	private final double[][] answers;
+	private final Dataset data;
+	private BatchSource source;
 	private final double scaling;
 	private final int batchSize;
+	// the batch being trained on, borrowed from the source for one step
+	private Batch batch;
+	private final double[] batchEval;
 
-	private final Random rand = new Random();
+	private final long seed;
 
-	public Trainer(double trainingRate, Network net, Fitness trainFit, int batchSize, int ram) {
+	private final TrainingMetrics metrics;
+	private static final long reportIntervalMillis = 1000;
+
+	// data parallel training, each worker backpropagates a contiguous slice of the mini-batch into its own shard
+	private final int threads;
+	private ExecutorService workers;
+	private final List<Thread> workerThreads = new ArrayList<>();
+	private Layer[][] shards;
+	private Layer[][] asyncShards;
+	private SampleStream[] asyncStreams;
+
+	// asynchronous training statistics, staleness counts the updates other workers applied between a worker's forward pass and its own update
+	private double samplesPerSecond = 0;
+	private double meanStaleness = 0;
+	private long maxStaleness = 0;
+
+	public Trainer(double trainingRate, Network net, Dataset data, int batchSize, int ram) {
+		this(trainingRate, net, data, batchSize, ram, 1, new Random().nextLong());
+	}
+
+	public Trainer(double trainingRate, Network net, Dataset data, int batchSize, int ram, int threads, long seed) {
+		assert data.getNumInputs() == net.param.numInputs && data.getNumOutputs() == net.param.numOutputs;
 		this.trainingRate = trainingRate;
 		this.net = net;
 		this.ram = ram;
-		this.data = trainFit.getData();
-		this.answers = trainFit.getAnswers();
+		this.data = data;
+		this.source = new StreamBatchSource(data, batchSize, seed);
 		this.batchSize = batchSize;
 		this.scaling = 2.0 / (batchSize * net.param.numOutputs);
 		this.mses = new double[ram];
+		this.batchEval = new double[batchSize * net.param.numOutputs];
+		this.seed = seed;
+		this.threads = Math.max(1, Math.min(threads, batchSize));
+		// progress is reported at most once per interval to the sinks added through getMetrics, there are none by default
+		String[] layerNames = net instanceof ConvolutionalNetwork ? ((ConvolutionalNetwork) net).getLayerNames() : new String[0];
+		this.metrics = new TrainingMetrics(layerNames, reportIntervalMillis);
+		if (net instanceof ConvolutionalNetwork) {
+			((ConvolutionalNetwork) net).setMetrics(this.metrics);
+		}
+	}
+
+	public void prefetch(int numLoaders, int depth, Augmentation augmentation) {
+		// batches are assembled on background threads while the current one trains
+		this.source.close();
+		this.source = new BatchLoader(this.data, this.batchSize, this.seed, numLoaders, depth, augmentation);
 	}
 
 	public void train(int cycles) {
+		this.metrics.setTargetSteps(cycles);
 		while (cycle < cycles) {
-			if (net instanceof ConvolutionalNetwork) {
-				trainStep((ConvolutionalNetwork) net);
+			long t0 = System.nanoTime();
+			long allocated0 = this.allocatedBytes();
+			if (net instanceof ConvolutionalNetwork && !trainStep((ConvolutionalNetwork) net)) {
+				this.metrics.event("Data ran out after " + cycle + " cycles");
+				break;
 			}
-			String cycleText = "Cycle " + (cycle + 1) + "/" + cycles;
-			if (ram > 0) {
-				cycleText += ", Run Avg Mse =" + Utility.avgString(mses);
+			this.metrics.recordStep(batchSize, System.nanoTime() - t0, this.allocatedBytes() - allocated0);
+			this.metrics.setLoss(this.windowMse(), allTimeMse);
+			if (this.source instanceof BatchLoader) {
+				BatchLoader loader = (BatchLoader) this.source;
+				this.metrics.setLoader(loader.getQueueDepth(), loader.getStalls(), loader.getStallMillis());
 			}
-			cycleText += ", All Avg Mse =" + Utility.roundString(allTimeMse);
-			System.out.println(cycleText);
+			this.metrics.maybeReport();
 			cycle++;
 		}
+		this.metrics.report(true);
+	}
+
+	private double windowMse() {
+		if (ram <= 0) {
+			return allTimeMse;
+		}
+		double sum = 0;
+		for (double mse : mses) {
+			sum += mse;
+		}
+		return sum / ram;
+	}
+
+	private long allocatedBytes() {
+		// the training thread plus the data parallel workers
+		if (!this.metrics.countsAllocations()) {
+			return 0;
+		}
+		long bytes = TrainingMetrics.allocatedBytes(Thread.currentThread());
+		synchronized (this.workerThreads) {
+			for (Thread worker : this.workerThreads) {
+				bytes += TrainingMetrics.allocatedBytes(worker);
+			}
+		}
+		return bytes;
+	}
+
+	public TrainingMetrics getMetrics() {
+		return this.metrics;
 	}
 
-	public void trainStep(ConvolutionalNetwork net) {
+	public boolean trainStep(ConvolutionalNetwork net) {
+		// an incomplete last batch from a finite stream is dropped
+		this.batch = this.source.take();
+		if (this.batch.count < batchSize) {
+			this.source.release(this.batch);
+			return false;
+		}
 		net.prepareGrads();
 
-		for (int k = 0; k < batchSize; k++) {
-			int k1 = this.rand.nextInt(this.data.length);
-			double[] x = this.data[k1];
-			double[] ans = this.answers[k1];
+		int numOutputs = this.net.param.numOutputs;
 
-			double[] eval = net.evaluate(x, k);
-			double mse = Utility.mse(eval, ans);
+		if (this.threads == 1) {
+			this.trainRange(net, 0, batchSize, net.getGradients());
+		} else {
+			this.trainParallel(net);
+		}
+
+		for (int k = 0; k < batchSize; k++) {
+			double mse = Utility.mse(this.batchEval, this.batch.answers, k * numOutputs, numOutputs);
 
 			if (ram > 0 && mses != null) {
 				mses[mseIndex] = mse;
@@ -68,10 +170,215 @@ public class Trainer {
 			allTimeMse *= ((double) allTimeMseCount + 1.0) / ((double) allTimeMseCount + 2.0);
 			allTimeMse += mse / ((double) allTimeMseCount + 2.0);
 			allTimeMseCount++;
-
-			net.computeBackProp(ans, eval, k);
 		}
 
+		this.source.release(this.batch);
 		net.applyGrads(-1 * scaling * trainingRate);
+		return true;
+	}
+
+	private void trainRange(ConvolutionalNetwork net, int start, int count, Layer[] grads) {
+		// the inputs and the output error go straight into the network's workspace
+		int numInputs = this.net.param.numInputs;
+		int numOutputs = this.net.param.numOutputs;
+		Tensor x = net.getInput(start, count);
+		System.arraycopy(this.batch.inputs, start * numInputs, x.data, x.offset, count * numInputs);
+		Tensor eval = net.evaluateBatch(x, start);
+		Tensor error = net.getOutputError(start, count);
+		for (int n = 0; n < count * numOutputs; n++) {
+			double e = eval.data[eval.offset + n];
+			this.batchEval[start * numOutputs + n] = e;
+			error.data[error.offset + n] = e - this.batch.answers[start * numOutputs + n];
+		}
+		net.backPropagateBatch(error, start, grads);
+	}
+
+	private void trainParallel(ConvolutionalNetwork net) {
+		this.ensureWorkers();
+		if (this.shards == null) {
+			this.shards = new Layer[this.threads][];
+			for (int w = 1; w < this.threads; w++) {
+				this.shards[w] = net.newGradientShard();
+			}
+		}
+		// shard 0 is the network's own gradient, which is what applyGrads reads
+		this.shards[0] = net.getGradients();
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int w = 0; w < this.threads; w++) {
+			int start = w * batchSize / this.threads;
+			int end = (w + 1) * batchSize / this.threads;
+			Layer[] shard = this.shards[w];
+			tasks.add(() -> {
+				for (Layer grad : shard) {
+					grad.zero();
+				}
+				this.trainRange(net, start, end - start, shard);
+				return null;
+			});
+		}
+		this.runAll(tasks);
+
+		// pairwise tree reduction in a fixed order, so results only depend on the seed and thread count
+		for (int step = 1; step < this.threads; step *= 2) {
+			tasks.clear();
+			for (int w = 0; w + step < this.threads; w += 2 * step) {
+				Layer[] into = this.shards[w];
+				Layer[] from = this.shards[w + step];
+				tasks.add(() -> {
+					net.addGradients(into, from);
+					return null;
+				});
+			}
+			this.runAll(tasks);
+		}
+	}
+
+	public void trainAsync(int samples) {
+		if (net instanceof ConvolutionalNetwork) {
+			trainAsync((ConvolutionalNetwork) net, samples);
+		}
+		this.metrics.event("Async " + samples + " samples on " + this.threads + " threads"
+				+ ", " + Math.round(this.samplesPerSecond) + " samples/s"
+				+ ", mean staleness =" + Utility.roundString(this.meanStaleness)
+				+ ", max staleness = " + this.maxStaleness
+				+ ", All Avg Mse =" + Utility.roundString(allTimeMse));
+	}
+
+	public void trainAsync(ConvolutionalNetwork net, int samples) {
+		// lock-free Hogwild training: every worker applies its own per-sample update straight to the shared weights,
+		// so results are not reproducible but no worker ever waits for another; each worker streams its own shard of the data
+		assert this.threads <= net.getBatchSize();
+		int numOutputs = this.net.param.numOutputs;
+		double rate = -1 * scaling * trainingRate;
+		AtomicLong remaining = new AtomicLong(samples);
+		AtomicLong updates = new AtomicLong();
+		LongAdder totalStaleness = new LongAdder();
+		LongAccumulator worstStaleness = new LongAccumulator(Math::max, 0);
+		double[] workerMse = new double[this.threads];
+		if (this.asyncStreams == null) {
+			this.asyncStreams = new SampleStream[this.threads];
+			for (int w = 0; w < this.threads; w++) {
+				this.asyncStreams[w] = this.data.stream(this.seed, w, this.threads);
+			}
+		}
+		if (this.asyncShards == null) {
+			this.asyncShards = new Layer[this.threads][];
+			for (int w = 0; w < this.threads; w++) {
+				this.asyncShards[w] = net.newGradientShard();
+			}
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int w = 0; w < this.threads; w++) {
+			int slot = w;
+			SampleStream workerStream = this.asyncStreams[w];
+			Layer[] shard = this.asyncShards[w];
+			tasks.add(() -> {
+				// the worker's own batch slot of the workspace holds its sample and error
+				Tensor x = net.getInput(slot, 1);
+				Tensor error = net.getOutputError(slot, 1);
+				double[] ans = new double[numOutputs];
+				double mse = 0;
+				for (Layer grad : shard) {
+					grad.zero();
+				}
+				while (remaining.getAndDecrement() > 0 && workerStream.next(x.data, x.offset, ans, 0)) {
+					long seen = updates.get();
+					Tensor eval = net.evaluateBatch(x, slot);
+					for (int n = 0; n < numOutputs; n++) {
+						double e = eval.data[eval.offset + n] - ans[n];
+						error.data[error.offset + n] = e;
+						mse += e * e / numOutputs;
+					}
+					net.backPropagateBatch(error, slot, shard);
+					net.applyGradients(shard, rate);
+					for (Layer grad : shard) {
+						grad.zero();
+					}
+
+					long staleness = updates.getAndIncrement() - seen;
+					totalStaleness.add(staleness);
+					worstStaleness.accumulate(staleness);
+				}
+				// written once, the workers' entries share cache lines
+				workerMse[slot] = mse;
+				return null;
+			});
+		}
+
+		this.ensureWorkers();
+		long t0 = System.nanoTime();
+		long allocated0 = this.allocatedBytes();
+		this.runAll(tasks);
+		long t1 = System.nanoTime();
+
+		double mse = 0;
+		for (double m : workerMse) {
+			mse += m;
+		}
+		// fewer than the requested samples are trained if the workers' streams run out
+		long done = updates.get();
+		allTimeMse = done > 0 ? (allTimeMse * allTimeMseCount + mse) / (allTimeMseCount + done) : allTimeMse;
+		allTimeMseCount += done;
+		this.samplesPerSecond = done / ((t1 - t0) / 1e9);
+		this.meanStaleness = done > 0 ? totalStaleness.doubleValue() / done : 0;
+		this.maxStaleness = worstStaleness.get();
+		this.metrics.recordStep((int) done, t1 - t0, this.allocatedBytes() - allocated0);
+		this.metrics.setLoss(allTimeMse, allTimeMse);
+	}
+
+	public BatchSource getSource() {
+		return this.source;
+	}
+
+	public double getSamplesPerSecond() {
+		return this.samplesPerSecond;
+	}
+
+	public double getMeanStaleness() {
+		return this.meanStaleness;
+	}
+
+	public long getMaxStaleness() {
+		return this.maxStaleness;
+	}
+
+	private void ensureWorkers() {
+		if (this.workers == null) {
+			this.workers = Executors.newFixedThreadPool(this.threads, r -> {
+				Thread thread = new Thread(r, "trainer-worker");
+				thread.setDaemon(true);
+				synchronized (this.workerThreads) {
+					this.workerThreads.add(thread);
+				}
+				return thread;
+			});
+		}
+	}
+
+	private void runAll(List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> future : this.workers.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public void shutdown() {
+		this.source.close();
+		this.metrics.clearSinks();
+		if (net instanceof ConvolutionalNetwork) {
+			((ConvolutionalNetwork) net).setMetrics(null);
+		}
+		if (this.workers != null) {
+			this.workers.shutdown();
+			this.workers = null;
+		}
 	}
 }
@@ -8,6 +8,10 @@ public final class Utility {
 
 	private Utility() {}
 
+	public static void seed(long seed) {
+		rand = new Random(seed);
+	}
+
 	public static double randVal(double center, double radius) {
 		return (2 * radius * rand.nextDouble() - radius) + center;
 	}
@@ -19,66 +23,52 @@ public final class Utility {
 	}
 
 	public static double dotProd(double[] a, double[] x) {
-		double v = 0;
-		for (int i = 0; i < a.length; i++) {
-			if (x[i] == 0) {
-				continue;
-			}
-			v += a[i] * x[i];
-		}
-		return v;
+		return dotProd(a, 0, x, 0, a.length);
 	}
 
-	public static double[] evaluate(double[][] A, double[] b, double[] x, ActFunc actFunc) {
-		double[] y = new double[A.length];
-		for (int i = 0; i < A.length; i++) {
-			y[i] += dotProd(A[i], x) + b[i];
-		}
+	public static double dotProd(double[] a, int aOffset, double[] x, int xOffset, int length) {
+		return Kernels.getKernels().dot(a, aOffset, x, xOffset, length);
+	}
+
+	public static Tensor evaluate(double[] A, double[] b, Tensor x, ActFunc actFunc) {
+		// A is row-major with one row per entry of b
+		assert x.isContiguous();
+		int columns = x.length();
+		Tensor y = new Tensor(b.length, 1, 1);
+		System.arraycopy(b, 0, y.data, 0, b.length);
+		Kernels.getKernels().gemv(A, 0, b.length, columns, x.data, x.offset, y.data, 0);
 		if (actFunc != null) {
-			ActFuncs.getActFuncs().actFuncify(y, actFunc);
+			ActFuncs.getActFuncs().actFuncify(y.data, actFunc);
 		}
 		return y;
 	}
 
 	public static int maxIndex(double[] x) {
+		return maxIndex(x, 0, x.length);
+	}
+
+	public static int maxIndex(double[] x, int offset, int length) {
 		int i = 0;
 		double max = -Double.MAX_VALUE;
-		for (int j = 0; j < x.length; j++) {
-			if (x[j] > max) {
-				max = x[j];
+		for (int j = 0; j < length; j++) {
+			if (x[offset + j] > max) {
+				max = x[offset + j];
 				i = j;
 			}
 		}
 		return i;
 	}
 
-	public static double getOrDefault(double[][][] x, int i, int j, int k, double def) {
-		if (i < 0 || i >= x.length || j < 0 || j >= x[0].length || k < 0 || k >= x[0][0].length) {
-			return def;
-		}
-		return x[i][j][k];
-	}
-
-	public static void setIfCan(double[][][] x, int i, int j, int k, double value) {
-		if (i < 0 || i >= x.length || j < 0 || j >= x[0].length || k < 0 || k >= x[0][0].length) {
-			return;
-		}
-		x[i][j][k] = value;
-	}
-
-	public static void setIfCan(double[][][] x, int i, int j, double[] arr) {
-		if (i < 0 || i >= x.length || j < 0 || j >= x[0].length) {
-			return;
-		}
-		x[i][j] = arr;
+	public static double mse(double[] guess, double[] correct) {
+		return mse(guess, correct, 0, guess.length);
 	}
 
-	public static double mse(double[] guess, double[] correct) {
+	public static double mse(double[] guess, double[] correct, int offset, int length) {
 		double e = 0;
-		for (int i = 0; i < guess.length; i++) {
+		for (int i = offset; i < offset + length; i++) {
 			e += (guess[i] - correct[i]) * (guess[i] - correct[i]);
 		}
-		return (e / ((double) guess.length));
+		return (e / ((double) length));
 	}
 
 	public static double mse(double[] guess, int correct) {
@@ -0,0 +1,197 @@
+package core;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorKernels extends Kernels {
+
+	private static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+	// int8 values are widened to int32 lanes, so they are loaded a quarter register at a time
+	private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Byte> B = VectorSpecies.of(byte.class, VectorShape.forBitSize(I.length() * Byte.SIZE));
+
+	VectorKernels() {
+		// a single lane would only add overhead on top of the scalar loops
+		if (D.length() < 2) {
+			throw new UnsupportedOperationException("No SIMD registers wider than one double");
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "vector " + D.vectorBitSize() + " bit";
+	}
+
+	@Override
+	public double dot(double[] a, int aOffset, double[] x, int xOffset, int length) {
+		// two accumulators hide the latency of the adds
+		DoubleVector acc0 = DoubleVector.zero(D);
+		DoubleVector acc1 = DoubleVector.zero(D);
+		int step = D.length();
+		int i = 0;
+		for (; i <= length - 2 * step; i += 2 * step) {
+			acc0 = DoubleVector.fromArray(D, a, aOffset + i).mul(DoubleVector.fromArray(D, x, xOffset + i)).add(acc0);
+			acc1 = DoubleVector.fromArray(D, a, aOffset + i + step).mul(DoubleVector.fromArray(D, x, xOffset + i + step)).add(acc1);
+		}
+		for (; i <= length - step; i += step) {
+			acc0 = DoubleVector.fromArray(D, a, aOffset + i).mul(DoubleVector.fromArray(D, x, xOffset + i)).add(acc0);
+		}
+		double v = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			v += a[i + aOffset] * x[i + xOffset];
+		}
+		return v;
+	}
+
+	@Override
+	public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+		int i = 0;
+		for (; i <= length - D.length(); i += D.length()) {
+			DoubleVector.fromArray(D, x, xOffset + i).mul(alpha).add(DoubleVector.fromArray(D, y, yOffset + i)).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[i + yOffset] += alpha * x[i + xOffset];
+		}
+	}
+
+	@Override
+	public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+		int i = 0;
+		for (; i <= length - F.length(); i += F.length()) {
+			FloatVector.fromArray(F, x, xOffset + i).mul(alpha).add(FloatVector.fromArray(F, y, yOffset + i)).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[i + yOffset] += alpha * x[i + xOffset];
+		}
+	}
+
+	@Override
+	public void gemv(double[] A, int aOffset, int rows, int columns, double[] x, int xOffset, double[] y, int yOffset) {
+		// four rows at a time so every load of x feeds four products
+		int step = D.length();
+		int r = 0;
+		for (; r <= rows - 4; r += 4) {
+			int a0 = aOffset + r * columns;
+			int a1 = a0 + columns;
+			int a2 = a1 + columns;
+			int a3 = a2 + columns;
+			DoubleVector acc0 = DoubleVector.zero(D);
+			DoubleVector acc1 = DoubleVector.zero(D);
+			DoubleVector acc2 = DoubleVector.zero(D);
+			DoubleVector acc3 = DoubleVector.zero(D);
+			int c = 0;
+			for (; c <= columns - step; c += step) {
+				DoubleVector xv = DoubleVector.fromArray(D, x, xOffset + c);
+				acc0 = DoubleVector.fromArray(D, A, a0 + c).mul(xv).add(acc0);
+				acc1 = DoubleVector.fromArray(D, A, a1 + c).mul(xv).add(acc1);
+				acc2 = DoubleVector.fromArray(D, A, a2 + c).mul(xv).add(acc2);
+				acc3 = DoubleVector.fromArray(D, A, a3 + c).mul(xv).add(acc3);
+			}
+			double v0 = acc0.reduceLanes(VectorOperators.ADD);
+			double v1 = acc1.reduceLanes(VectorOperators.ADD);
+			double v2 = acc2.reduceLanes(VectorOperators.ADD);
+			double v3 = acc3.reduceLanes(VectorOperators.ADD);
+			for (; c < columns; c++) {
+				double xc = x[xOffset + c];
+				v0 += A[a0 + c] * xc;
+				v1 += A[a1 + c] * xc;
+				v2 += A[a2 + c] * xc;
+				v3 += A[a3 + c] * xc;
+			}
+			y[yOffset + r] += v0;
+			y[yOffset + r + 1] += v1;
+			y[yOffset + r + 2] += v2;
+			y[yOffset + r + 3] += v3;
+		}
+		for (; r < rows; r++) {
+			y[yOffset + r] += this.dot(A, aOffset + r * columns, x, xOffset, columns);
+		}
+	}
+
+	@Override
+	public int dot(byte[] a, int aOffset, byte[] x, int xOffset, int length) {
+		IntVector acc0 = IntVector.zero(I);
+		IntVector acc1 = IntVector.zero(I);
+		int step = I.length();
+		int i = 0;
+		for (; i <= length - 2 * step; i += 2 * step) {
+			acc0 = widen(a, aOffset + i).mul(widen(x, xOffset + i)).add(acc0);
+			acc1 = widen(a, aOffset + i + step).mul(widen(x, xOffset + i + step)).add(acc1);
+		}
+		for (; i <= length - step; i += step) {
+			acc0 = widen(a, aOffset + i).mul(widen(x, xOffset + i)).add(acc0);
+		}
+		int v = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			v += a[i + aOffset] * x[i + xOffset];
+		}
+		return v;
+	}
+
+	@Override
+	public void axpy(int alpha, byte[] x, int xOffset, int[] y, int yOffset, int length) {
+		int i = 0;
+		for (; i <= length - I.length(); i += I.length()) {
+			widen(x, xOffset + i).mul(alpha).add(IntVector.fromArray(I, y, yOffset + i)).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[i + yOffset] += alpha * x[i + xOffset];
+		}
+	}
+
+	private static IntVector widen(byte[] x, int offset) {
+		return (IntVector) ByteVector.fromArray(B, x, offset).convertShape(VectorOperators.B2I, I, 0);
+	}
+
+	@Override
+	public void relu(double[] w, int offset, int length) {
+		// a compare rather than max(0) so NaN goes to 0 like the scalar loop
+		DoubleVector zero = DoubleVector.zero(D);
+		int i = offset;
+		for (; i <= offset + length - D.length(); i += D.length()) {
+			DoubleVector v = DoubleVector.fromArray(D, w, i);
+			zero.blend(v, v.compare(VectorOperators.GT, 0)).intoArray(w, i);
+		}
+		for (; i < offset + length; i++) {
+			w[i] = w[i] > 0 ? w[i] : 0;
+		}
+	}
+
+	@Override
+	public void reluPrime(double[] w, int offset, int length) {
+		DoubleVector zero = DoubleVector.zero(D);
+		DoubleVector one = DoubleVector.broadcast(D, 1);
+		int i = offset;
+		for (; i <= offset + length - D.length(); i += D.length()) {
+			zero.blend(one, DoubleVector.fromArray(D, w, i).compare(VectorOperators.GT, 0)).intoArray(w, i);
+		}
+		for (; i < offset + length; i++) {
+			w[i] = w[i] > 0 ? 1 : 0;
+		}
+	}
+
+	@Override
+	public void reluAndPrime(double[] w, int offset, int length, double[] prime, int primeOffset) {
+		DoubleVector zero = DoubleVector.zero(D);
+		DoubleVector one = DoubleVector.broadcast(D, 1);
+		int i = 0;
+		for (; i <= length - D.length(); i += D.length()) {
+			DoubleVector v = DoubleVector.fromArray(D, w, offset + i);
+			VectorMask<Double> positive = v.compare(VectorOperators.GT, 0);
+			zero.blend(one, positive).intoArray(prime, primeOffset + i);
+			zero.blend(v, positive).intoArray(w, offset + i);
+		}
+		for (; i < length; i++) {
+			boolean positive = w[offset + i] > 0;
+			prime[primeOffset + i] = positive ? 1 : 0;
+			w[offset + i] = positive ? w[offset + i] : 0;
+		}
+	}
+}
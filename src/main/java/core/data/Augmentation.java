@@ -0,0 +1,9 @@
+package core.data;
+
+import java.util.Random;
+
+public interface Augmentation {
+
+	// modifies the inputs of the first batch.count samples in place
+	void apply(Batch batch, Random rand);
+}
@@ -0,0 +1,24 @@
+package core.data;
+
+public class Batch {
+
+	// reusable buffers holding up to capacity samples back to back, only the first count are valid
+	public final int capacity;
+	public final int numInputs;
+	public final int numOutputs;
+	public final double[] inputs;
+	public final double[] answers;
+	public int count = 0;
+
+	public Batch(int capacity, int numInputs, int numOutputs) {
+		this.capacity = capacity;
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+		this.inputs = new double[capacity * numInputs];
+		this.answers = new double[capacity * numOutputs];
+	}
+
+	public Batch(Dataset data, int capacity) {
+		this(capacity, data.getNumInputs(), data.getNumOutputs());
+	}
+}
@@ -0,0 +1,181 @@
+package core.data;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BatchLoader implements BatchSource {
+
+	// each loader thread owns a ring of reusable batches and streams its own shard of the data, batches are handed out
+	// round robin over the loaders, so the sequence of batches only depends on the seed and the number of loaders
+	private final Loader[] loaders;
+	private int next = 0;
+	private boolean ended = false;
+
+	private final AtomicLong takes = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private final AtomicLong stallNanos = new AtomicLong();
+	private final AtomicLong depthSum = new AtomicLong();
+
+	public BatchLoader(Dataset data, int batchSize, long seed, int numLoaders, int depth, Augmentation augmentation) {
+		assert numLoaders > 0 && depth > 0;
+		this.loaders = new Loader[numLoaders];
+		for (int l = 0; l < numLoaders; l++) {
+			this.loaders[l] = new Loader(data.stream(seed, l, numLoaders), new Random(seed + l), augmentation, data, batchSize, depth, l);
+		}
+		for (Loader loader : this.loaders) {
+			loader.thread.start();
+		}
+	}
+
+	@Override
+	public Batch take() {
+		Loader loader = this.loaders[this.next];
+		if (this.ended) {
+			return loader.end;
+		}
+		this.takes.incrementAndGet();
+		this.depthSum.addAndGet(this.getQueueDepth());
+		Batch batch = loader.ready.poll();
+		if (batch == null) {
+			// the compute thread has to wait, loading is the bottleneck
+			long t0 = System.nanoTime();
+			try {
+				batch = loader.ready.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			this.stalls.incrementAndGet();
+			this.stallNanos.addAndGet(System.nanoTime() - t0);
+		}
+		if (batch == loader.end) {
+			this.ended = true;
+			if (loader.failure != null) {
+				throw new RuntimeException(loader.failure);
+			}
+			return batch;
+		}
+		this.next = (this.next + 1) % this.loaders.length;
+		return batch;
+	}
+
+	@Override
+	public void release(Batch batch) {
+		for (Loader loader : this.loaders) {
+			if (loader.owns(batch)) {
+				loader.free.add(batch);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		for (Loader loader : this.loaders) {
+			loader.thread.interrupt();
+		}
+	}
+
+	// batches currently loaded and waiting to be taken
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Loader loader : this.loaders) {
+			depth += loader.ready.size();
+		}
+		return depth;
+	}
+
+	public double getMeanQueueDepth() {
+		long n = this.takes.get();
+		return n == 0 ? 0 : ((double) this.depthSum.get()) / n;
+	}
+
+	public long getTakes() {
+		return this.takes.get();
+	}
+
+	// takes that found no batch ready and had to wait for one
+	public long getStalls() {
+		return this.stalls.get();
+	}
+
+	public double getStallMillis() {
+		return this.stallNanos.get() / 1e6;
+	}
+
+	// time the loaders spent waiting for a free buffer, i.e. waiting on compute
+	public double getLoaderIdleMillis() {
+		long idle = 0;
+		for (Loader loader : this.loaders) {
+			idle += loader.idleNanos.get();
+		}
+		return idle / 1e6;
+	}
+
+	private static class Loader implements Runnable {
+
+		private final SampleStream stream;
+		private final Random rand;
+		private final Augmentation augmentation;
+		private final Batch[] ring;
+		private final BlockingQueue<Batch> free;
+		// one extra slot so the end marker always fits
+		private final BlockingQueue<Batch> ready;
+		private final Batch end;
+		private final Thread thread;
+		private final AtomicLong idleNanos = new AtomicLong();
+		private volatile Throwable failure;
+
+		private Loader(SampleStream stream, Random rand, Augmentation augmentation, Dataset data, int batchSize, int depth, int index) {
+			this.stream = stream;
+			this.rand = rand;
+			this.augmentation = augmentation;
+			this.ring = new Batch[depth];
+			this.free = new ArrayBlockingQueue<>(depth);
+			this.ready = new ArrayBlockingQueue<>(depth + 1);
+			for (int b = 0; b < depth; b++) {
+				this.ring[b] = new Batch(data, batchSize);
+				this.free.add(this.ring[b]);
+			}
+			this.end = new Batch(0, data.getNumInputs(), data.getNumOutputs());
+			this.thread = new Thread(this, "batch-loader-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		private boolean owns(Batch batch) {
+			for (Batch b : this.ring) {
+				if (b == batch) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					long t0 = System.nanoTime();
+					Batch batch = this.free.take();
+					this.idleNanos.addAndGet(System.nanoTime() - t0);
+					this.stream.fill(batch);
+					if (batch.count < batch.capacity) {
+						this.free.add(batch);
+						break;
+					}
+					if (this.augmentation != null) {
+						this.augmentation.apply(batch, this.rand);
+					}
+					this.ready.put(batch);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Throwable e) {
+				this.failure = e;
+			}
+			this.ready.offer(this.end);
+		}
+	}
+}
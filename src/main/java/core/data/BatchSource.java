@@ -0,0 +1,11 @@
+package core.data;
+
+public interface BatchSource extends AutoCloseable {
+
+	// the next batch, which stays valid until it is released; a batch with fewer samples than were asked for means the data ran out
+	Batch take();
+	void release(Batch batch);
+
+	@Override
+	default void close() {}
+}
@@ -0,0 +1,13 @@
+package core.data;
+
+public interface Dataset {
+
+	int getNumInputs();
+	int getNumOutputs();
+
+	// unbounded datasets can only be streamed, sized ones can also be read by index
+	boolean isSized();
+
+	// a stream over one shard of the samples, shard in [0, numShards), seeded so that runs are reproducible
+	SampleStream stream(long seed, int shard, int numShards);
+}
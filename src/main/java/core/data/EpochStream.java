@@ -0,0 +1,55 @@
+package core.data;
+
+import java.util.Random;
+
+public class EpochStream implements SampleStream {
+
+	private final IndexedDataset data;
+	private final Random rand;
+	private final int[] order;
+	private int position;
+	private int epoch = 0;
+
+	public EpochStream(IndexedDataset data, long seed, int shard, int numShards) {
+		// every shard reshuffles its own strided slice of the indices each epoch, so shards never overlap
+		assert shard >= 0 && shard < numShards;
+		this.data = data;
+		this.rand = new Random(seed + shard);
+		int size = (data.size() - shard + numShards - 1) / numShards;
+		this.order = new int[Math.max(0, size)];
+		for (int n = 0; n < this.order.length; n++) {
+			this.order[n] = shard + n * numShards;
+		}
+		this.position = this.order.length;
+	}
+
+	@Override
+	public boolean next(double[] input, int inputOffset, double[] answer, int answerOffset) {
+		if (this.order.length == 0) {
+			return false;
+		}
+		if (this.position == this.order.length) {
+			this.shuffle();
+		}
+		int index = this.order[this.position++];
+		this.data.copyInput(index, input, inputOffset);
+		this.data.copyAnswer(index, answer, answerOffset);
+		return true;
+	}
+
+	private void shuffle() {
+		for (int n = this.order.length - 1; n > 0; n--) {
+			int m = this.rand.nextInt(n + 1);
+			int temp = this.order[n];
+			this.order[n] = this.order[m];
+			this.order[m] = temp;
+		}
+		this.position = 0;
+		this.epoch++;
+	}
+
+	// the epoch the last sample came from, starting at 1
+	public int getEpoch() {
+		return this.epoch;
+	}
+}
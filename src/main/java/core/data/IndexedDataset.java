@@ -0,0 +1,30 @@
+package core.data;
+
+public interface IndexedDataset extends Dataset {
+
+	int size();
+	void copyInput(int index, double[] into, int offset);
+	void copyAnswer(int index, double[] into, int offset);
+
+	default int label(int index) {
+		double[] answer = new double[this.getNumOutputs()];
+		this.copyAnswer(index, answer, 0);
+		int label = 0;
+		for (int i = 1; i < answer.length; i++) {
+			if (answer[i] > answer[label]) {
+				label = i;
+			}
+		}
+		return label;
+	}
+
+	@Override
+	default boolean isSized() {
+		return true;
+	}
+
+	@Override
+	default SampleStream stream(long seed, int shard, int numShards) {
+		return new EpochStream(this, seed, shard, numShards);
+	}
+}
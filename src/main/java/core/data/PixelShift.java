@@ -0,0 +1,47 @@
+package core.data;
+
+import java.util.Random;
+
+public class PixelShift implements Augmentation {
+
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final int maxShift;
+	private final ThreadLocal<double[]> scratch;
+
+	public PixelShift(int[] inputSize, int maxShift) {
+		this.width = inputSize[0];
+		this.height = inputSize[1];
+		this.depth = inputSize[2];
+		this.maxShift = maxShift;
+		this.scratch = ThreadLocal.withInitial(() -> new double[this.width * this.height * this.depth]);
+	}
+
+	@Override
+	public void apply(Batch batch, Random rand) {
+		// every sample is translated by its own random offset in [-maxShift, maxShift], vacated pixels become 0
+		int numInputs = this.width * this.height * this.depth;
+		double[] original = this.scratch.get();
+		for (int s = 0; s < batch.count; s++) {
+			int di = rand.nextInt(2 * this.maxShift + 1) - this.maxShift;
+			int dj = rand.nextInt(2 * this.maxShift + 1) - this.maxShift;
+			if (di == 0 && dj == 0) {
+				continue;
+			}
+			int base = s * numInputs;
+			System.arraycopy(batch.inputs, base, original, 0, numInputs);
+			for (int k = 0; k < this.depth; k++) {
+				for (int j = 0; j < this.height; j++) {
+					for (int i = 0; i < this.width; i++) {
+						int si = i - di;
+						int sj = j - dj;
+						boolean inside = si >= 0 && si < this.width && sj >= 0 && sj < this.height;
+						batch.inputs[base + i + j * this.width + k * this.width * this.height] =
+								inside ? original[si + sj * this.width + k * this.width * this.height] : 0;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package core.data;
+
+public interface SampleStream {
+
+	// copies the next sample into the buffers, false once the stream has run out
+	boolean next(double[] input, int inputOffset, double[] answer, int answerOffset);
+
+	default int fill(Batch batch) {
+		int count = 0;
+		while (count < batch.capacity
+				&& this.next(batch.inputs, count * batch.numInputs, batch.answers, count * batch.numOutputs)) {
+			count++;
+		}
+		batch.count = count;
+		return count;
+	}
+}
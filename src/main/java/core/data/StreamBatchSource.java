@@ -0,0 +1,22 @@
+package core.data;
+
+public class StreamBatchSource implements BatchSource {
+
+	// fills a single reusable batch on the calling thread
+	private final SampleStream stream;
+	private final Batch batch;
+
+	public StreamBatchSource(Dataset data, int batchSize, long seed) {
+		this.stream = data.stream(seed, 0, 1);
+		this.batch = new Batch(data, batchSize);
+	}
+
+	@Override
+	public Batch take() {
+		this.stream.fill(this.batch);
+		return this.batch;
+	}
+
+	@Override
+	public void release(Batch batch) {}
+}
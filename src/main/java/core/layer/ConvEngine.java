@@ -0,0 +1,5 @@
+package core.layer;
+
+public enum ConvEngine {
+	DIRECT, IM2COL
+}
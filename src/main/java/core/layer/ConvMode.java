@@ -0,0 +1,7 @@
+package core.layer;
+
+public enum ConvMode {
+	// PER_CHANNEL applies every kernel to each input channel on its own, giving depth * numConvs channels;
+	// MULTI_CHANNEL kernels span the whole input depth, giving numConvs channels
+	PER_CHANNEL, MULTI_CHANNEL
+}
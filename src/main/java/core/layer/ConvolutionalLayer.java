@@ -1,125 +1,845 @@
 package core.layer;
 
 import core.ActFuncs;
+import core.FloatGemm;
+import core.Int8Gemm;
+import core.Kernels;
+import core.Tensor;
 import core.Utility;
 
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 
 public class ConvolutionalLayer extends Layer {
 
+	// kernel n * filterDepth + c is the part of filter n that reads input channel c of its group, null when the layer
+	// trains in float
 	double[][][] Cs;
+	// one per output channel, null when the layer has no bias
+	double[] bias;
+	private final Precision precision;
+	// the kernel matrix as the weights when the layer trains in float, otherwise a float copy only made by freezeFloat
+	private float[] floatKernels;
+	// the kernel matrix in int8 by filter and what turns a filter's int32 sums back into outputs, only made by freezeInt8
+	private transient byte[] int8Kernels;
+	private transient float[] sumScales;
+	private transient float inverseInputScale;
 
 	public ConvolutionalLayer(LayerParameters layerParams) {
-		super(layerParams);
-		this.setupCs(true);
+		this(layerParams, Precision.DOUBLE, true);
 	}
 
-	private ConvolutionalLayer(LayerParameters layerParams, boolean randomize) {
+	ConvolutionalLayer(LayerParameters layerParams, Precision precision, boolean randomize) {
 		super(layerParams);
+		this.precision = precision;
 		this.setupCs(randomize);
 	}
 
 	private void setupCs(boolean randomize) {
-		this.Cs = new double[this.layerParam.numConvs][2 * this.layerParam.convRadius - 1][2 * this.layerParam.convRadius - 1];
+		int depth = this.filterDepth();
+		this.Cs = new double[this.layerParam.numConvs * depth][2 * this.layerParam.convRadius - 1][2 * this.layerParam.convRadius - 1];
+		this.bias = this.layerParam.bias ? new double[this.layerParam.outputSize[2]] : null;
 		if (randomize) {
+			// a filter over several channels sums that many kernels, so each starts smaller to keep the same spread
+			double radius = 3 / Math.sqrt(depth);
 			for (int n = 0; n < this.Cs.length; n++) {
 				for (int j = 0; j < this.Cs[0][0].length; j++) {
 					 for (int i = 0; i < this.Cs[0].length; i++) {
-						 this.Cs[n][i][j] = Utility.randVal(0, 3);
+						 this.Cs[n][i][j] = Utility.randVal(0, radius);
 					}
 				}
 			}
+			if (this.bias != null) {
+				for (int k = 0; k < this.bias.length; k++) {
+					this.bias[k] = Utility.randVal(0, 1);
+				}
+			}
+		}
+		if (this.trainsInFloat()) {
+			// drawn in double so a float layer starts from the rounded weights of the same seed, the bias stays double
+			this.floatKernels = toFloat(this.kernelMatrix());
+			this.Cs = null;
+		}
+	}
+
+	private boolean trainsInFloat() {
+		return this.precision != Precision.DOUBLE;
+	}
+
+	private int width() {
+		return 2 * this.layerParam.convRadius - 1;
+	}
+
+	private int filterDepth() {
+		// input channels each filter reads: the whole depth for MULTI_CHANNEL, otherwise one, with the filters applied
+		// to every input channel as its own group; output channel n + g * numConvs is filter n on group g
+		return this.layerParam.isMultiChannel() ? this.layerParam.inputSize[2] : 1;
+	}
+
+	private int numGroups() {
+		return this.layerParam.inputSize[2] / this.filterDepth();
+	}
+
+	private void addBias(double[] y, int offset, int count) {
+		if (this.bias == null) {
+			return;
+		}
+		int pixels = this.layerParam.outputSize[0] * this.layerParam.outputSize[1];
+		for (int s = 0; s < count; s++) {
+			for (int k = 0; k < this.bias.length; k++) {
+				int start = offset + (s * this.bias.length + k) * pixels;
+				for (int p = start; p < start + pixels; p++) {
+					y[p] += this.bias[k];
+				}
+			}
+		}
+	}
+
+	private void addBias(float[] y, int count) {
+		if (this.bias == null) {
+			return;
+		}
+		int pixels = this.layerParam.outputSize[0] * this.layerParam.outputSize[1];
+		for (int s = 0; s < count; s++) {
+			for (int k = 0; k < this.bias.length; k++) {
+				int start = (s * this.bias.length + k) * pixels;
+				for (int p = start; p < start + pixels; p++) {
+					y[p] = (float) (y[p] + this.bias[k]);
+				}
+			}
+		}
+	}
+
+	@Override
+	public Tensor evaluate(Tensor x, int batchIndex) {
+		return this.forward(x, batchIndex, true);
+	}
+
+	@Override
+	public Tensor infer(Tensor x) {
+		return this.forward(x, 0, false);
+	}
+
+	private Tensor forward(Tensor x, int batchIndex, boolean record) {
+		// a batch of one, the result a view of the batch output
+		int[] inputSize = this.layerParam.inputSize;
+		int[] outputSize = this.layerParam.outputSize;
+		Tensor batchX = x.reshape(inputSize[0], inputSize[1], inputSize[2], 1);
+		Tensor y = new Tensor(outputSize[0], outputSize[1], outputSize[2], 1);
+		if (record) {
+			Tensor z = new Tensor(outputSize[0], outputSize[1], outputSize[2], 1);
+			this.evaluateBatch(batchX, y, z, batchIndex, new double[this.getTrainingScratchSize(1)]);
+		} else {
+			this.inferBatch(batchX, y, new double[this.getInferenceScratchSize(1)]);
+		}
+		return y.slice(3, 0);
+	}
+
+	@Override
+	public void evaluateBatch(Tensor x, Tensor y, Tensor prime, int firstBatchIndex, double[] scratch) {
+		this.record(x, prime, firstBatchIndex);
+		this.convolveBatch(x, y, scratch);
+		// one fused pass over the raw convolutions gives the activations and their derivatives
+		ActFuncs.getActFuncs().actFuncify(y.data, y.offset, y.length(), prime.data, prime.offset, this.layerParam.actFunc);
+	}
+
+	private void convolveBatch(Tensor x, Tensor y, double[] scratch) {
+		// raw convolution plus bias of the batch into the contiguous y by either engine, with the kernel matrix at the
+		// start of scratch
+		int outputLength = this.outputLength();
+		switch (this.layerParam.convEngine) {
+			case DIRECT -> {
+				this.kernelMatrix(scratch);
+				for (int s = 0; s < x.shape(3); s++) {
+					this.convolveDirect(x, s * x.stride(3), y.data, y.offset + s * outputLength, scratch);
+				}
+			}
+			case IM2COL -> this.convolveIm2col(x, y, scratch);
+		}
+		this.addBias(y.data, y.offset, x.shape(3));
+	}
+
+	private int outputLength() {
+		return this.layerParam.outputSize[0] * this.layerParam.outputSize[1] * this.layerParam.outputSize[2];
+	}
+
+	private int kernelLength() {
+		return this.layerParam.numConvs * this.filterDepth() * this.width() * this.width();
+	}
+
+	private void convolveIm2col(Tensor x, Tensor y, double[] scratch) {
+		// raw convolution of the batch into the contiguous y; scratch holds the kernel matrix followed by one column matrix
+		// with the patches of every channel in a group stacked on each other
+		int count = x.shape(3);
+		int nc = this.layerParam.numConvs;
+		int depth = this.filterDepth();
+		int taps = this.width() * this.width();
+		int pixels = this.layerParam.outputSize[0] * this.layerParam.outputSize[1];
+		int outputLength = pixels * this.layerParam.outputSize[2];
+		int colOffset = this.kernelLength();
+		this.kernelMatrix(scratch);
+		y.fill(0);
+		for (int s = 0; s < count; s++) {
+			for (int g = 0; g < this.numGroups(); g++) {
+				for (int c = 0; c < depth; c++) {
+					this.im2col(x.data, x.offset + s * x.stride(3), g * depth + c, scratch, colOffset + c * taps * pixels);
+				}
+				// output channels n + g * nc are the rows of kernels * col
+				multiply(this.precision, nc, pixels, depth * taps, this.kernels(scratch), 0, depth * taps, 1, scratch, colOffset, pixels, 1, y.data, y.offset + s * outputLength + g * nc * pixels, pixels);
+			}
 		}
 	}
 
 	@Override
-	public double[][][] evaluate(double[][][] x, int batchIndex) {
-		double[][][] y = new double[this.layerParam.outputSize[0]][this.layerParam.outputSize[1]][this.layerParam.outputSize[2]];
-		double[][][] z = new double[this.layerParam.outputSize[0]][this.layerParam.outputSize[1]][this.layerParam.outputSize[2]];
+	public int getInferenceScratchSize(int count) {
+		return switch (this.layerParam.convEngine) {
+			case DIRECT -> this.kernelLength();
+			case IM2COL -> this.kernelLength() + this.width() * this.width() * this.filterDepth() * this.layerParam.outputSize[0] * this.layerParam.outputSize[1];
+		};
+	}
+
+	@Override
+	public int getTrainingScratchSize(int count) {
+		// backward needs the kernel matrix and its gradient, IM2COL also one sample's columns and delta
+		return switch (this.layerParam.convEngine) {
+			case DIRECT -> 2 * this.kernelLength();
+			case IM2COL -> this.getInferenceScratchSize(count) + this.kernelLength() + this.outputLength();
+		};
+	}
+
+	@Override
+	public void inferBatch(Tensor x, Tensor y, double[] scratch) {
+		assert y.isContiguous();
+		this.convolveBatch(x, y, scratch);
+		ActFuncs.getActFuncs().actFuncify(y.data, y.offset, y.length(), this.layerParam.actFunc);
+	}
+
+	@Override
+	public void freezeFloat() {
+		if (!this.trainsInFloat()) {
+			this.floatKernels = toFloat(this.kernelMatrix());
+		}
+	}
+
+	@Override
+	public int getFloatScratchSize(int count) {
+		return this.width() * this.width() * this.filterDepth() * this.layerParam.outputSize[0] * this.layerParam.outputSize[1];
+	}
+
+	@Override
+	public void inferBatch(float[] x, float[] y, int count, float[] scratch, boolean doubleSums) {
+		this.inferIm2col(x, y, count, scratch, doubleSums, null, null);
+	}
+
+	private void inferIm2col(float[] x, float[] y, int count, float[] floatScratch, boolean doubleSums, byte[] int8Scratch, int[] sums) {
+		// always im2col, the engines only differ in how they reach the same sums; int8 quantizes each sample first and
+		// builds its columns behind it in int8Scratch
+		int nc = this.layerParam.numConvs;
+		int depth = this.filterDepth();
+		int taps = this.width() * this.width();
+		int pixels = this.layerParam.outputSize[0] * this.layerParam.outputSize[1];
+		int inputLength = this.layerParam.inputSize[0] * this.layerParam.inputSize[1] * this.layerParam.inputSize[2];
+		int outputLength = pixels * this.layerParam.outputSize[2];
+		boolean int8 = int8Scratch != null;
+		Object input = int8 ? int8Scratch : x;
+		Object col = int8 ? int8Scratch : floatScratch;
+		int colOffset = int8 ? inputLength : 0;
+		for (int s = 0; s < count; s++) {
+			int inputOffset = s * inputLength;
+			if (int8) {
+				Int8Gemm.quantize(x, inputOffset, inputLength, this.inverseInputScale, int8Scratch, 0);
+				inputOffset = 0;
+			}
+			for (int g = 0; g < this.numGroups(); g++) {
+				for (int c = 0; c < depth; c++) {
+					this.im2col(input, inputOffset, g * depth + c, col, colOffset + c * taps * pixels);
+				}
+				int o = s * outputLength + g * nc * pixels;
+				if (int8) {
+					Arrays.fill(sums, 0, nc * pixels, 0);
+					Int8Gemm.multiply(nc, pixels, depth * taps, this.int8Kernels, 0, depth * taps, 1, int8Scratch, colOffset, pixels, 1, sums, 0, pixels);
+					for (int n = 0; n < nc; n++) {
+						for (int p = 0; p < pixels; p++) {
+							y[o + n * pixels + p] = sums[n * pixels + p] * this.sumScales[n];
+						}
+					}
+				} else {
+					Arrays.fill(y, o, o + nc * pixels, 0);
+					FloatGemm.multiply(nc, pixels, depth * taps, this.floatKernels, 0, depth * taps, 1, floatScratch, 0, pixels, 1, y, o, pixels, doubleSums);
+				}
+			}
+		}
+		this.addBias(y, count);
+		ActFuncs.getActFuncs().actFuncify(y, 0, count * outputLength, this.layerParam.actFunc);
+	}
+
+	@Override
+	public void freezeInt8(double inputRange) {
+		double inputScale = Int8Gemm.scale(inputRange);
+		double[] kernels = this.kernelMatrix();
+		int nc = this.layerParam.numConvs;
+		this.int8Kernels = new byte[kernels.length];
+		double[] filterScales = Int8Gemm.quantizeRows(kernels, nc, kernels.length / nc, this.int8Kernels);
+		this.sumScales = new float[nc];
+		for (int n = 0; n < nc; n++) {
+			this.sumScales[n] = (float) (inputScale * filterScales[n]);
+		}
+		this.inverseInputScale = (float) (1 / inputScale);
+	}
+
+	@Override
+	public int getInt8ScratchSize(int count) {
+		// one quantized sample and its columns
+		int[] inputSize = this.layerParam.inputSize;
+		return inputSize[0] * inputSize[1] * inputSize[2] + this.getFloatScratchSize(count);
+	}
+
+	@Override
+	public void inferBatch(float[] x, float[] y, int count, byte[] scratch, int[] sums) {
+		this.inferIm2col(x, y, count, null, false, scratch, sums);
+	}
+
+	@Override
+	public long getFrozenWeightBytes() {
+		long bias = this.bias == null ? 0 : this.bias.length;
+		if (this.int8Kernels != null) {
+			return this.int8Kernels.length + (long) Float.BYTES * this.sumScales.length + Double.BYTES * bias;
+		}
+		if (this.floatKernels != null) {
+			return (long) Float.BYTES * this.floatKernels.length + Double.BYTES * bias;
+		}
+		return (long) Double.BYTES * (this.kernelLength() + bias);
+	}
+
+	private void convolveDirect(Tensor x, int sampleOffset, double[] y, int yOffset, double[] kernels) {
+		// the sample at sampleOffset past x's own offset into y from yOffset on; each row is a border strip, the run of
+		// windows inside the input and another border strip; only the strips pay for the padding, the run steps its
+		// input index along and takes the unchecked convolveInterior
+		int r = this.layerParam.convRadius - 1;
+		int taps = this.width() * this.width();
 		int convMod = this.layerParam.convMod;
-		for (int n = 0; n < this.layerParam.numConvs; n++) {
-			for (int k = 0; k < this.layerParam.inputSize[2]; k++) {
-				for (int j = 0; j < this.layerParam.outputSize[1]; j++) {
-					for (int i = 0; i < this.layerParam.outputSize[0]; i++) {
-						double rawConv = convolve(x, i - convMod, j - convMod, k, n);
-						y[i][j][n + k * this.layerParam.numConvs] = ActFuncs.getActFuncs().actFunc(rawConv, this.layerParam.actFunc);
-						z[i][j][n + k * this.layerParam.numConvs] = ActFuncs.getActFuncs().actFuncPrime(rawConv, this.layerParam.actFunc);
+		int depth = this.filterDepth();
+		int nc = this.layerParam.numConvs;
+		int[] outputSize = this.layerParam.outputSize;
+		int[] interior = this.interior();
+		int o = yOffset;
+		for (int k = 0; k < outputSize[2]; k++) {
+			int n = k % nc;
+			int g = k / nc;
+			for (int j = 0; j < outputSize[1]; j++) {
+				boolean rowInside = j >= interior[2] && j < interior[3];
+				int from = rowInside ? interior[0] : outputSize[0];
+				int to = rowInside ? interior[1] : outputSize[0];
+				for (int i = 0; i < from; i++) {
+					y[o++] = this.convolveBorder(x, sampleOffset, i - convMod, j - convMod, n, g, kernels);
+				}
+				if (from < to) {
+					int index = x.index(from - convMod - r, j - convMod - r, g * depth) + sampleOffset;
+					for (int i = from; i < to; i++) {
+						double result = 0;
+						for (int c = 0; c < depth; c++) {
+							result += this.convolveInterior(x, index + c * x.stride(2), kernels, (n * depth + c) * taps);
+						}
+						y[o++] = result;
+						index += x.stride(0);
 					}
 				}
+				for (int i = Math.max(from, to); i < outputSize[0]; i++) {
+					y[o++] = this.convolveBorder(x, sampleOffset, i - convMod, j - convMod, n, g, kernels);
+				}
+			}
+		}
+	}
+
+	private double convolveBorder(Tensor x, int sampleOffset, int i, int j, int n, int g, double[] kernels) {
+		int depth = this.filterDepth();
+		double result = 0;
+		for (int c = 0; c < depth; c++) {
+			result += this.convolve(x, sampleOffset, i, j, g * depth + c, kernels, (n * depth + c) * this.width() * this.width());
+		}
+		return result;
+	}
+
+	private int[] interior() {
+		// {from, to} in i then j of the outputs whose whole window lies inside the input
+		int r = this.layerParam.convRadius - 1;
+		int convMod = this.layerParam.convMod;
+		int[] bounds = new int[4];
+		for (int d = 0; d < 2; d++) {
+			bounds[2 * d] = Math.min(this.layerParam.outputSize[d], convMod + r);
+			bounds[2 * d + 1] = Math.max(bounds[2 * d], Math.min(this.layerParam.outputSize[d], this.layerParam.inputSize[d] - r + convMod));
+		}
+		return bounds;
+	}
+
+	private double convolveInterior(Tensor x, int index, double[] kernels, int kernelOffset) {
+		// index is the input under tap (0, 0); the taps are summed in the same order as convolve, so the result
+		// is the same to the bit, with the 3x3 kernels of convRadius 2 written out and the rows of the 5x5 ones of convRadius 3
+		double[] data = x.data;
+		int s0 = x.stride(0);
+		int s1 = x.stride(1);
+		int width = this.width();
+		if (width == 3) {
+			int row1 = index + s1;
+			int row2 = index + 2 * s1;
+			double result = 0;
+			result += data[index] * kernels[kernelOffset];
+			result += data[index + s0] * kernels[kernelOffset + 1];
+			result += data[index + 2 * s0] * kernels[kernelOffset + 2];
+			result += data[row1] * kernels[kernelOffset + 3];
+			result += data[row1 + s0] * kernels[kernelOffset + 4];
+			result += data[row1 + 2 * s0] * kernels[kernelOffset + 5];
+			result += data[row2] * kernels[kernelOffset + 6];
+			result += data[row2 + s0] * kernels[kernelOffset + 7];
+			result += data[row2 + 2 * s0] * kernels[kernelOffset + 8];
+			return result;
+		}
+		if (width == 5) {
+			double result = 0;
+			for (int cj = 0; cj < 5; cj++) {
+				int row = index + cj * s1;
+				int t = kernelOffset + 5 * cj;
+				result += data[row] * kernels[t];
+				result += data[row + s0] * kernels[t + 1];
+				result += data[row + 2 * s0] * kernels[t + 2];
+				result += data[row + 3 * s0] * kernels[t + 3];
+				result += data[row + 4 * s0] * kernels[t + 4];
 			}
+			return result;
 		}
-		this.lastX[batchIndex] = x;
-		this.lastPrime[batchIndex] = z;
+		double result = 0;
+		for (int cj = 0; cj < width; cj++) {
+			int row = index + cj * s1;
+			for (int ci = 0; ci < width; ci++) {
+				result += data[row + ci * s0] * kernels[kernelOffset + ci + cj * width];
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Tensor inferBatch(Tensor x) {
+		int[] outputSize = this.layerParam.outputSize;
+		Tensor y = new Tensor(outputSize[0], outputSize[1], outputSize[2], x.shape(3));
+		this.inferBatch(x, y, new double[this.getInferenceScratchSize(x.shape(3))]);
 		return y;
 	}
 
-	private double convolve(double[][][] x, int i, int j, int k, int n) {
+	private double[] kernelMatrix() {
+		double[] kernels = new double[this.kernelLength()];
+		this.kernelMatrix(kernels);
+		return kernels;
+	}
+
+	private Object kernels(double[] scratch) {
+		// what the GEMMs read as the kernel matrix, the float weights or the copy kernelMatrix put at the start of scratch
+		return this.trainsInFloat() ? this.floatKernels : scratch;
+	}
+
+	private void kernelMatrix(double[] kernels) {
+		// row n is filter n with tap (ci, cj) of its channel c in column c * width * width + ci + cj * width, matching
+		// the rows of im2col
+		if (this.Cs == null) {
+			for (int n = 0; n < this.floatKernels.length; n++) {
+				kernels[n] = this.floatKernels[n];
+			}
+			return;
+		}
+		int width = this.width();
+		for (int n = 0; n < this.Cs.length; n++) {
+			for (int cj = 0; cj < width; cj++) {
+				for (int ci = 0; ci < width; ci++) {
+					kernels[n * width * width + ci + cj * width] = this.Cs[n][ci][cj];
+				}
+			}
+		}
+	}
+
+	private void im2col(Object x, int xOffset, int k, Object col, int colOffset) {
+		// row (ci + cj * width) of col holds, for every output pixel, the input value under kernel tap (ci, cj); x and
+		// col are double, float or byte arrays of the same type with the sample contiguous from xOffset
+		int width = this.width();
+		int outputWidth = this.layerParam.outputSize[0];
+		int outputHeight = this.layerParam.outputSize[1];
+		int pixels = outputWidth * outputHeight;
+		int inputWidth = this.layerParam.inputSize[0];
+		int inputHeight = this.layerParam.inputSize[1];
+		int channel = xOffset + k * inputWidth * inputHeight;
+		clear(col, colOffset, colOffset + width * width * pixels);
+		for (int cj = 0; cj < width; cj++) {
+			int dj = this.tapOffset(cj);
+			for (int ci = 0; ci < width; ci++) {
+				int di = this.tapOffset(ci);
+				int iStart = Math.max(0, -di);
+				int iEnd = Math.max(iStart, Math.min(outputWidth, inputWidth - di));
+				int row = colOffset + (ci + cj * width) * pixels;
+				for (int j = Math.max(0, -dj); j < Math.min(outputHeight, inputHeight - dj); j++) {
+					System.arraycopy(x, channel + (j + dj) * inputWidth + iStart + di, col, row + j * outputWidth + iStart, iEnd - iStart);
+				}
+			}
+		}
+	}
+
+	private static void clear(Object a, int from, int to) {
+		if (a instanceof double[] d) {
+			Arrays.fill(d, from, to, 0);
+		} else if (a instanceof float[] f) {
+			Arrays.fill(f, from, to, 0);
+		} else {
+			Arrays.fill((byte[]) a, from, to, (byte) 0);
+		}
+	}
+
+	private int tapOffset(int c) {
+		// input offset of kernel tap c from the output pixel, along i or j
+		return c - (this.layerParam.convRadius - 1) - this.layerParam.convMod;
+	}
+
+	private void col2im(double[] col, int colOffset, double[] x, int xOffset, int k) {
+		// adjoint of im2col, scatters the patch rows back onto channel k of the contiguous sample at xOffset in x
+		int width = this.width();
+		int outputWidth = this.layerParam.outputSize[0];
+		int outputHeight = this.layerParam.outputSize[1];
+		int pixels = outputWidth * outputHeight;
+		int inputWidth = this.layerParam.inputSize[0];
+		int inputHeight = this.layerParam.inputSize[1];
+		for (int cj = 0; cj < width; cj++) {
+			int dj = this.tapOffset(cj);
+			for (int ci = 0; ci < width; ci++) {
+				int di = this.tapOffset(ci);
+				int iStart = Math.max(0, -di);
+				int iEnd = Math.max(iStart, Math.min(outputWidth, inputWidth - di));
+				int row = colOffset + (ci + cj * width) * pixels;
+				for (int j = Math.max(0, -dj); j < Math.min(outputHeight, inputHeight - dj); j++) {
+					int base = row + j * outputWidth;
+					int xIndex = xOffset + iStart + di + (j + dj + k * inputHeight) * inputWidth;
+					for (int i = iStart; i < iEnd; i++) {
+						x[xIndex++] += col[base + i];
+					}
+				}
+			}
+		}
+	}
+
+	private double convolve(Tensor x, int sampleOffset, int i, int j, int k, double[] kernels, int kernelOffset) {
+		// taps past the edge read 0
 		double result = 0;
 		int r = this.layerParam.convRadius - 1;
+		int width = this.width();
+		int[] inputSize = this.layerParam.inputSize;
 		for (int cj = -r; cj <= r; cj++) {
 			for (int ci = -r; ci <= r; ci++) {
-				result += Utility.getOrDefault(x, i + ci, j + cj, k, 0) * Cs[n][ci + r][cj + r];
+				boolean inside = i + ci >= 0 && i + ci < inputSize[0] && j + cj >= 0 && j + cj < inputSize[1];
+				result += (inside ? x.data[x.index(i + ci, j + cj, k) + sampleOffset] : 0) * kernels[kernelOffset + ci + r + (cj + r) * width];
 			}
 		}
 		return result;
 	}
 
+	private double weight(int kernel, int ci, int cj) {
+		return this.trainsInFloat() ? this.floatKernels[(kernel * this.width() + cj) * this.width() + ci] : this.Cs[kernel][ci][cj];
+	}
+
 	@Override
-	public double[][][] getGradientX(int i, int j, int k, int batchIndex) {
-		double[][][] gradX = new double[lastX[batchIndex].length][lastX[batchIndex][0].length][lastX[batchIndex][0][0].length];
+	public Tensor getGradientX(int i, int j, int k, int batchIndex, int[][] nonzeroRanges) {
+		Tensor gradX = new Tensor(this.layerParam.inputSize);
 		int r = this.layerParam.convRadius - 1;
+		int depth = this.filterDepth();
 		int n = k % this.layerParam.numConvs;
-		int xk = k / this.layerParam.numConvs;
+		int g = k / this.layerParam.numConvs;
 		int convMod = this.layerParam.convMod;
-		for (int cj = -r; cj <= r; cj++) {
-			for (int ci = -r; ci <= r; ci++) {
-				Utility.setIfCan(gradX, (i - convMod) + ci, (j - convMod) + cj, xk, this.Cs[n][ci + r][cj + r] * this.lastPrime[batchIndex][i][j][k]);
+		double prime = this.lastPrime[batchIndex].get(i, j, k);
+		for (int c = 0; c < depth; c++) {
+			for (int cj = -r; cj <= r; cj++) {
+				for (int ci = -r; ci <= r; ci++) {
+					gradX.setIfCan((i - convMod) + ci, (j - convMod) + cj, g * depth + c, this.weight(n * depth + c, ci + r, cj + r) * prime);
+				}
 			}
 		}
-		this.gradXNonzeroRanges[0][0] = Math.max(0, (i - convMod) - r);
-		this.gradXNonzeroRanges[0][1] = Math.min(this.layerParam.inputSize[0] - 1, (i - convMod) + r);
-		this.gradXNonzeroRanges[1][0] = Math.max(0, (j - convMod) - r);
-		this.gradXNonzeroRanges[1][1] = Math.min(this.layerParam.inputSize[1] - 1, (j - convMod) + r);
-		this.gradXNonzeroRanges[2][0] = k / this.layerParam.numConvs;
-		this.gradXNonzeroRanges[2][1] = k / this.layerParam.numConvs;
+		nonzeroRanges[0][0] = Math.max(0, (i - convMod) - r);
+		nonzeroRanges[0][1] = Math.min(this.layerParam.inputSize[0] - 1, (i - convMod) + r);
+		nonzeroRanges[1][0] = Math.max(0, (j - convMod) - r);
+		nonzeroRanges[1][1] = Math.min(this.layerParam.inputSize[1] - 1, (j - convMod) + r);
+		nonzeroRanges[2][0] = g * depth;
+		nonzeroRanges[2][1] = g * depth + depth - 1;
 		return gradX;
 	}
 
 	@Override
-	public void train(Layer[] grads, double trainingRate) {
-		for (Layer grad : grads) {
-			this.combineScale(grad, trainingRate);
+	public Tensor backward(Tensor error, Layer grad, int batchIndex, boolean propagate) {
+		int[] inputSize = this.layerParam.inputSize;
+		int[] outputSize = this.layerParam.outputSize;
+		Tensor errorX = propagate ? new Tensor(inputSize[0], inputSize[1], inputSize[2], 1) : null;
+		this.backwardBatch(error.reshape(outputSize[0], outputSize[1], outputSize[2], 1), errorX, grad, batchIndex, new double[this.getTrainingScratchSize(1)]);
+		return propagate ? errorX.slice(3, 0) : null;
+	}
+
+	@Override
+	public void backwardBatch(Tensor error, Tensor errorX, Layer grad, int firstBatchIndex, double[] scratch) {
+		// scratch holds the kernel matrix, then the kernel gradient summed over the batch, then for IM2COL the columns
+		// and delta of one sample
+		ConvolutionalLayer convGrad = (ConvolutionalLayer) grad;
+		int kernelLength = this.kernelLength();
+		int outputLength = this.outputLength();
+		int inputLength = this.layerParam.inputSize[0] * this.layerParam.inputSize[1] * this.layerParam.inputSize[2];
+		this.kernelMatrix(scratch);
+		Arrays.fill(scratch, kernelLength, 2 * kernelLength, 0);
+		if (errorX != null) {
+			errorX.fill(0);
+		}
+		for (int s = 0; s < error.shape(3); s++) {
+			double[] errorXData = errorX == null ? null : errorX.data;
+			int errorXOffset = errorX == null ? 0 : errorX.offset + s * inputLength;
+			switch (this.layerParam.convEngine) {
+				case DIRECT -> this.backwardDirect(error.data, error.offset + s * outputLength, convGrad, firstBatchIndex + s, errorXData, errorXOffset, scratch);
+				case IM2COL -> this.backwardIm2col(error.data, error.offset + s * outputLength, convGrad, firstBatchIndex + s, errorXData, errorXOffset, scratch);
+			}
+		}
+		this.addKernelGradient(convGrad, scratch, kernelLength);
+	}
+
+	private void backwardDirect(double[] error, int errorOffset, ConvolutionalLayer grad, int batchIndex, double[] errorX, int errorXOffset, double[] scratch) {
+		// one sample in one pass instead of an input sized gradient per output: the delta of each output adds its
+		// input patch to the kernel gradient and its kernel to the input error, unchecked in the interior
+		int r = this.layerParam.convRadius - 1;
+		int width = this.width();
+		int taps = width * width;
+		int kernelLength = this.kernelLength();
+		int convMod = this.layerParam.convMod;
+		int depth = this.filterDepth();
+		int nc = this.layerParam.numConvs;
+		int[] inputSize = this.layerParam.inputSize;
+		int[] outputSize = this.layerParam.outputSize;
+		int[] interior = this.interior();
+		Tensor x = this.lastX[batchIndex];
+		Tensor prime = this.lastPrime[batchIndex];
+		int o = errorOffset;
+		for (int k = 0; k < outputSize[2]; k++) {
+			int n = k % nc;
+			int g = k / nc;
+			for (int j = 0; j < outputSize[1]; j++) {
+				for (int i = 0; i < outputSize[0]; i++) {
+					double delta = error[o++] * prime.get(i, j, k);
+					if (delta == 0) {
+						continue;
+					}
+					if (grad.bias != null) {
+						grad.bias[k] += delta;
+					}
+					boolean inside = i >= interior[0] && i < interior[1] && j >= interior[2] && j < interior[3];
+					for (int c = 0; c < depth; c++) {
+						int kernelOffset = (n * depth + c) * taps;
+						int xi = i - convMod - r;
+						int xj = j - convMod - r;
+						int channel = errorXOffset + (g * depth + c) * inputSize[0] * inputSize[1];
+						if (inside) {
+							this.backwardInterior(x, x.index(xi, xj, g * depth + c), errorX, channel + xi + xj * inputSize[0],
+									delta, scratch, kernelOffset, kernelLength);
+							continue;
+						}
+						for (int cj = 0; cj < width; cj++) {
+							for (int ci = 0; ci < width; ci++) {
+								if (xi + ci < 0 || xi + ci >= inputSize[0] || xj + cj < 0 || xj + cj >= inputSize[1]) {
+									continue;
+								}
+								scratch[kernelLength + kernelOffset + ci + cj * width] += delta * x.get(xi + ci, xj + cj, g * depth + c);
+								if (errorX != null) {
+									errorX[channel + xi + ci + (xj + cj) * inputSize[0]] += delta * scratch[kernelOffset + ci + cj * width];
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void backwardInterior(Tensor x, int xIndex, double[] errorX, int errorIndex, double delta, double[] scratch, int kernelOffset, int gradOffset) {
+		// the kernels start scratch and their gradient is gradOffset further on
+		int width = this.width();
+		int s0 = x.stride(0);
+		int s1 = x.stride(1);
+		for (int cj = 0; cj < width; cj++) {
+			int row = xIndex + cj * s1;
+			int t = gradOffset + kernelOffset + cj * width;
+			for (int ci = 0; ci < width; ci++) {
+				scratch[t + ci] += delta * x.data[row + ci * s0];
+			}
+		}
+		if (errorX != null) {
+			int inputWidth = this.layerParam.inputSize[0];
+			for (int cj = 0; cj < width; cj++) {
+				int row = errorIndex + cj * inputWidth;
+				int t = kernelOffset + cj * width;
+				for (int ci = 0; ci < width; ci++) {
+					errorX[row + ci] += delta * scratch[t + ci];
+				}
+			}
 		}
-		Arrays.fill(this.lastX, null);
-		Arrays.fill(this.lastPrime, null);
+	}
+
+	private void addKernelGradient(ConvolutionalLayer grad, double[] kernelGrad, int offset) {
+		if (this.trainsInFloat()) {
+			// summed over the batch in double, rounded once
+			for (int n = 0; n < grad.floatKernels.length; n++) {
+				grad.floatKernels[n] += (float) kernelGrad[offset + n];
+			}
+			return;
+		}
+		int width = this.width();
+		for (int n = 0; n < this.Cs.length; n++) {
+			for (int cj = 0; cj < width; cj++) {
+				for (int ci = 0; ci < width; ci++) {
+					grad.Cs[n][ci][cj] += kernelGrad[offset + n * width * width + ci + cj * width];
+				}
+			}
+		}
+	}
+
+	private void backwardIm2col(double[] error, int errorOffset, ConvolutionalLayer grad, int batchIndex, double[] errorX, int errorXOffset, double[] scratch) {
+		int nc = this.layerParam.numConvs;
+		int depth = this.filterDepth();
+		int width = this.width();
+		int taps = width * width;
+		int rows = depth * taps;
+		int pixels = this.layerParam.outputSize[0] * this.layerParam.outputSize[1];
+		int kernelLength = this.kernelLength();
+		int colOffset = 2 * kernelLength;
+		int deltaOffset = colOffset + rows * pixels;
+		Tensor prime = this.lastPrime[batchIndex];
+		assert prime.isContiguous();
+		for (int p = 0; p < this.outputLength(); p++) {
+			scratch[deltaOffset + p] = error[errorOffset + p] * prime.data[prime.offset + p];
+		}
+		for (int g = 0; g < this.numGroups(); g++) {
+			for (int c = 0; c < depth; c++) {
+				this.im2col(this.lastX[batchIndex].data, this.lastX[batchIndex].offset, g * depth + c, scratch, colOffset + c * taps * pixels);
+			}
+			// kernel gradient is delta * col^T
+			multiply(this.precision, nc, rows, pixels, scratch, deltaOffset + g * nc * pixels, pixels, 1, scratch, colOffset, 1, pixels, scratch, kernelLength, rows);
+			if (errorX != null) {
+				// patch errors are kernels^T * delta, folded back onto the input by col2im
+				Arrays.fill(scratch, colOffset, deltaOffset, 0);
+				multiply(this.precision, rows, pixels, nc, this.kernels(scratch), 0, 1, rows, scratch, deltaOffset + g * nc * pixels, pixels, 1, scratch, colOffset, pixels);
+				for (int c = 0; c < depth; c++) {
+					this.col2im(scratch, colOffset + c * taps * pixels, errorX, errorXOffset, g * depth + c);
+				}
+			}
+		}
+		if (grad.bias != null) {
+			for (int k = 0; k < this.layerParam.outputSize[2]; k++) {
+				for (int p = k * pixels; p < (k + 1) * pixels; p++) {
+					grad.bias[k] += scratch[deltaOffset + p];
+				}
+			}
+		}
+	}
+
+	@Override
+	public void train(Layer grad, double trainingRate) {
+		this.combineScale(grad, trainingRate);
 	}
 
 	@Override
 	public void combineScale(Layer grad, double scale) {
-		for (int n = 0; n < this.layerParam.numConvs; n++) {
-			for (int cj = 0; cj < this.Cs[0][0].length; cj++) {
-				for (int ci = 0; ci < this.Cs[0].length; ci++) {
-					this.Cs[n][ci][cj] += ((ConvolutionalLayer) grad).Cs[n][ci][cj] * scale;
+		ConvolutionalLayer add = (ConvolutionalLayer) grad;
+		if (this.trainsInFloat()) {
+			Kernels.getKernels().axpy((float) scale, add.floatKernels, 0, this.floatKernels, 0, this.floatKernels.length);
+		} else {
+			for (int n = 0; n < this.Cs.length; n++) {
+				for (int ci = 0; ci < this.width(); ci++) {
+					Kernels.getKernels().axpy(scale, add.Cs[n][ci], 0, this.Cs[n][ci], 0, this.width());
 				}
 			}
 		}
+		if (this.bias != null) {
+			Kernels.getKernels().axpy(scale, ((ConvolutionalLayer) grad).bias, 0, this.bias, 0, this.bias.length);
+		}
 	}
 
 	@Override
 	public Layer zeroCopy() {
-		return new ConvolutionalLayer(this.layerParam, false);
+		return new ConvolutionalLayer(this.layerParam, this.precision, false);
+	}
+
+	@Override
+	public int getNumWeights() {
+		return this.kernelLength() + (this.bias == null ? 0 : this.bias.length);
 	}
 
 	@Override
-	public void assignGradientInto(Layer receiveGrad, int i, int j, int k, int batchIndex) {
-		receiveGrad = receiveGrad.zeroCopy(); // unlike full, needs to reset receiveGrad
+	public void saveWeights(DoubleBuffer into) {
+		// kernel by kernel, first index fastest, then the bias, which is the order of the kernel matrix
+		into.put(this.kernelMatrix());
+		if (this.bias != null) {
+			into.put(this.bias);
+		}
+	}
+
+	@Override
+	public void loadWeights(DoubleBuffer from) {
+		if (this.trainsInFloat()) {
+			for (int n = 0; n < this.floatKernels.length; n++) {
+				this.floatKernels[n] = (float) from.get();
+			}
+		} else {
+			for (double[][] C : this.Cs) {
+				for (int cj = 0; cj < C[0].length; cj++) {
+					for (double[] column : C) {
+						column[cj] = from.get();
+					}
+				}
+			}
+		}
+		if (this.bias != null) {
+			from.get(this.bias);
+		}
+	}
+
+	@Override
+	public void zero() {
+		if (this.trainsInFloat()) {
+			Arrays.fill(this.floatKernels, 0);
+		} else {
+			for (double[][] C : this.Cs) {
+				for (double[] column : C) {
+					Arrays.fill(column, 0);
+				}
+			}
+		}
+		if (this.bias != null) {
+			Arrays.fill(this.bias, 0);
+		}
+	}
+
+	@Override
+	public void accumulateGradient(Layer grad, int i, int j, int k, double scale, int batchIndex) {
+		// only the filter that produced channel k is touched, and only by the input patches under it
+		double mult = scale * this.lastPrime[batchIndex].get(i, j, k);
+		if (mult == 0) {
+			return;
+		}
 		int r = this.layerParam.convRadius - 1;
-		int nc = this.layerParam.numConvs;
+		int depth = this.filterDepth();
+		int n = k % this.layerParam.numConvs;
+		int g = k / this.layerParam.numConvs;
 		int convMod = this.layerParam.convMod;
-		for (int cj = -r; cj <= r; cj++) {
-			for (int ci = -r; ci <= r; ci++) {
-				((ConvolutionalLayer) receiveGrad).Cs[k % nc][ci + r][cj + r] = Utility.getOrDefault(this.lastX[batchIndex], (i - convMod) + ci, (j - convMod) + cj, k / nc, 0) * this.lastPrime[batchIndex][i][j][k];
+		Tensor x = this.lastX[batchIndex];
+		ConvolutionalLayer convGrad = (ConvolutionalLayer) grad;
+		for (int c = 0; c < depth; c++) {
+			for (int cj = -r; cj <= r; cj++) {
+				for (int ci = -r; ci <= r; ci++) {
+					double value = mult * x.getOrDefault((i - convMod) + ci, (j - convMod) + cj, g * depth + c, 0);
+					if (this.trainsInFloat()) {
+						convGrad.floatKernels[((n * depth + c) * this.width() + cj + r) * this.width() + ci + r] += (float) value;
+					} else {
+						convGrad.Cs[n * depth + c][ci + r][cj + r] += value;
+					}
+				}
 			}
 		}
+		if (convGrad.bias != null) {
+			convGrad.bias[k] += mult;
+		}
 	}
 }
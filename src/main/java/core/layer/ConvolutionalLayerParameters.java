@@ -4,6 +4,17 @@ import core.ActFunc;
 
 public class ConvolutionalLayerParameters extends LayerParameters {
 	public ConvolutionalLayerParameters(int convRadius, int numConvs, int pad, ActFunc actFunc) {
-		super(convRadius, numConvs, pad, actFunc);
+		this(convRadius, numConvs, pad, actFunc, ConvEngine.DIRECT);
+	}
+
+	public ConvolutionalLayerParameters(int convRadius, int numConvs, int pad, ActFunc actFunc, ConvEngine convEngine) {
+		this(convRadius, numConvs, pad, actFunc, convEngine, ConvMode.PER_CHANNEL, false);
+	}
+
+	public ConvolutionalLayerParameters(int convRadius, int numConvs, int pad, ActFunc actFunc, ConvEngine convEngine, ConvMode convMode, boolean bias) {
+		super(convRadius, numConvs, pad, actFunc, convEngine, convMode, bias);
+		if (actFunc == ActFunc.SOFTMAX) {
+			throw new IllegalArgumentException("SOFTMAX normalizes a whole vector, so only full layers support it");
+		}
 	}
 }
@@ -1,13 +1,20 @@
 package core.layer;
 
+import core.ActFunc;
 import core.ActFuncs;
+import core.FloatGemm;
+import core.Int8Gemm;
+import core.Kernels;
+import core.Tensor;
 import core.Utility;
 
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 
 public class FullLayer extends Layer {
 
-	double[][] A;
+	// row-major numOutputs x numInputs, null when the layer trains in float
+	double[] A;
 	double[] b;
 
 	int[] inputSize;
@@ -16,25 +23,24 @@ public class FullLayer extends Layer {
 	int numInputs;
 	int numOutputs;
 
+	private final Precision precision;
+	// the weights when the layer trains in float, otherwise float copies of A and b only made by freezeFloat
+	private float[] floatA;
+	private float[] floatB;
+	// A in int8 by row and what turns a row's int32 sums back into outputs, only made by freezeInt8, which also
+	// makes floatB
+	private transient byte[] int8A;
+	private transient float[] sumScales;
+	private transient float inverseInputScale;
+
 	public FullLayer(LayerParameters layerParams) {
-		super(layerParams);
-		assert this.validateParameters();
-		this.inputSize = this.layerParam.inputSize;
-		this.outputSize = this.layerParam.outputSize;
-		int[] iRange = new int[]{0, this.inputSize[0] - 1};
-		int[] jRange = new int[]{0, this.inputSize[1] - 1};
-		int[] kRange = new int[]{0, this.inputSize[2] - 1};
-		this.gradXNonzeroRanges = new int[][]{iRange, jRange, kRange};
-		this.numInputs = this.inputSize[0] * this.inputSize[1] * this.inputSize[2];
-		this.numOutputs = this.outputSize[0] * this.outputSize[1] * this.outputSize[2];
-		this.setupAB(
-				numOutputs,
-				numInputs,
-				true);
+		this(layerParams, Precision.DOUBLE, true);
 	}
 
-	private FullLayer(LayerParameters layerParams, boolean randomize) {
+	FullLayer(LayerParameters layerParams, Precision precision, boolean randomize) {
 		super(layerParams);
+		assert this.validateParameters();
+		this.precision = precision;
 		this.inputSize = this.layerParam.inputSize;
 		this.outputSize = this.layerParam.outputSize;
 		this.numInputs = this.inputSize[0] * this.inputSize[1] * this.inputSize[2];
@@ -47,29 +53,132 @@ public class FullLayer extends Layer {
 
 	@Override
 	public Layer zeroCopy() {
-		return new FullLayer(this.layerParam, false);
+		return new FullLayer(this.layerParam, this.precision, false);
+	}
+
+	private boolean trainsInFloat() {
+		return this.precision != Precision.DOUBLE;
 	}
 
 	@Override
-	public void assignGradientInto(Layer receiveGrad, int i, int j, int k, int batchIndex) {
-		for (int ai = 0; ai < this.numOutputs; ai++) {
-			for (int aj = 0; aj < this.numInputs; aj++) {
-				((FullLayer) receiveGrad).A[ai][aj] = ai == i ? this.lastPrime[batchIndex][i][j][k] * this.lastX[batchIndex][aj % this.inputSize[0]][(aj / this.inputSize[0]) % this.inputSize[1]][aj / (this.inputSize[0] * this.inputSize[1])] : 0;
+	public void zero() {
+		if (this.trainsInFloat()) {
+			Arrays.fill(this.floatA, 0);
+			Arrays.fill(this.floatB, 0);
+			return;
+		}
+		Arrays.fill(this.A, 0);
+		Arrays.fill(this.b, 0);
+	}
+
+	@Override
+	public void accumulateGradient(Layer grad, int i, int j, int k, double scale, int batchIndex) {
+		// only for the elementwise functions, SOFTMAX couples the outputs so backward goes through delta instead
+		assert this.layerParam.actFunc != ActFunc.SOFTMAX;
+		this.accumulateRow(grad, i, scale * this.lastPrime[batchIndex].get(i, j, k), batchIndex);
+	}
+
+	private void accumulateRow(Layer grad, int i, double delta, int batchIndex) {
+		// output i only depends on row i of A and b[i]
+		if (delta == 0) {
+			return;
+		}
+		Tensor x = this.lastX[batchIndex];
+		FullLayer fullGrad = (FullLayer) grad;
+		if (this.trainsInFloat()) {
+			for (int n = 0; n < this.numInputs; n++) {
+				fullGrad.floatA[i * this.numInputs + n] += (float) (delta * x.data[x.offset + n]);
 			}
-			((FullLayer) receiveGrad).b[ai] = ai == i ? this.lastPrime[batchIndex][i][j][k] : 0;
+			fullGrad.floatB[i] += (float) delta;
+			return;
 		}
+		Kernels.getKernels().axpy(delta, x.data, x.offset, fullGrad.A, i * this.numInputs, this.numInputs);
+		fullGrad.b[i] += delta;
 	}
 
 	@Override
-	public void combineScale(Layer addLayer, double scale) {
+	public Tensor backward(Tensor error, Layer grad, int batchIndex, boolean propagate) {
+		// rank-1 update of the gradient, and the input error is A^T times the output error
+		if (this.trainsInFloat()) {
+			// float weights only go through the batched passes
+			Tensor errorX = propagate ? new Tensor(this.inputSize[0], this.inputSize[1], this.inputSize[2], 1) : null;
+			this.backwardBatch(error.reshape(this.numOutputs, 1, 1, 1), errorX, grad, batchIndex, new double[this.getTrainingScratchSize(1)]);
+			return propagate ? errorX.slice(3, 0) : null;
+		}
+		Tensor errorX = propagate ? new Tensor(this.inputSize) : null;
+		double[] delta = new double[this.numOutputs];
+		this.delta(error, this.lastPrime[batchIndex], delta, 0);
 		for (int i = 0; i < this.numOutputs; i++) {
-			for (int j = 0; j < this.numInputs; j++) {
-				this.A[i][j] += scale * ((FullLayer) addLayer).A[i][j];
+			if (delta[i] == 0) {
+				continue;
+			}
+			this.accumulateRow(grad, i, delta[i], batchIndex);
+			if (propagate) {
+				Kernels.getKernels().axpy(delta[i], this.A, i * this.numInputs, errorX.data, 0, this.numInputs);
+			}
+		}
+		return errorX;
+	}
+
+	private void delta(Tensor error, Tensor prime, double[] delta, int deltaOffset) {
+		Tensor e = error.isContiguous() ? error : error.copy();
+		ActFuncs.getActFuncs().delta(e.data, e.offset, prime.data, prime.offset, delta, deltaOffset, this.numOutputs, this.layerParam.actFunc);
+	}
+
+	private void activate(Tensor out, Tensor prime) {
+		// softmax normalizes every sample on its own, the elementwise functions take the whole batch in one call
+		int width = this.layerParam.actFunc == ActFunc.SOFTMAX ? this.numOutputs : out.length();
+		for (int first = 0; first < out.length(); first += width) {
+			if (prime == null) {
+				ActFuncs.getActFuncs().actFuncify(out.data, out.offset + first, width, this.layerParam.actFunc);
+			} else {
+				ActFuncs.getActFuncs().actFuncify(out.data, out.offset + first, width, prime.data, prime.offset + first, this.layerParam.actFunc);
 			}
-			this.b[i] += scale * ((FullLayer) addLayer).b[i];
 		}
 	}
 
+	@Override
+	public int getNumWeights() {
+		return this.numOutputs * (this.numInputs + 1);
+	}
+
+	@Override
+	public void saveWeights(DoubleBuffer into) {
+		if (this.trainsInFloat()) {
+			into.put(toDouble(this.floatA));
+			into.put(toDouble(this.floatB));
+			return;
+		}
+		into.put(this.A);
+		into.put(this.b);
+	}
+
+	@Override
+	public void loadWeights(DoubleBuffer from) {
+		if (this.trainsInFloat()) {
+			for (int n = 0; n < this.floatA.length; n++) {
+				this.floatA[n] = (float) from.get();
+			}
+			for (int i = 0; i < this.floatB.length; i++) {
+				this.floatB[i] = (float) from.get();
+			}
+			return;
+		}
+		from.get(this.A);
+		from.get(this.b);
+	}
+
+	@Override
+	public void combineScale(Layer addLayer, double scale) {
+		if (this.trainsInFloat()) {
+			Kernels.getKernels().axpy((float) scale, ((FullLayer) addLayer).floatA, 0, this.floatA, 0, this.floatA.length);
+			Kernels.getKernels().axpy((float) scale, ((FullLayer) addLayer).floatB, 0, this.floatB, 0, this.numOutputs);
+			return;
+		}
+		Kernels.getKernels().axpy(scale, ((FullLayer) addLayer).A, 0, this.A, 0, this.A.length);
+		Kernels.getKernels().axpy(scale, ((FullLayer) addLayer).b, 0, this.b, 0, this.numOutputs);
+	}
+
 	@Override
 	public boolean validateParameters() {
 		if (!super.validateParameters()) {
@@ -80,70 +189,238 @@ public class FullLayer extends Layer {
 	}
 
 	private void setupAB(int rows, int columns, boolean randomize) {
-		this.A = new double[rows][columns];
+		this.A = new double[rows * columns];
 		this.b = new double[rows];
 		if (randomize) {
 			for (int i = 0; i < rows; i++) {
 				for (int j = 0; j < columns; j++) {
-					this.A[i][j] = Utility.randVal(0, 1);
+					this.A[i * columns + j] = Utility.randVal(0, 1);
 				}
 				this.b[i] = Utility.randVal(0, 1);
 			}
 		}
+		if (this.trainsInFloat()) {
+			// drawn in double so a float layer starts from the rounded weights of the same seed
+			this.floatA = toFloat(this.A);
+			this.floatB = toFloat(this.b);
+			this.A = null;
+			this.b = null;
+		}
 	}
 
-	public static double[] convertToArray(double[][][] x) {
-		double[] xArr = new double[x.length * x[0].length * x[0][0].length];
-		for (int i = 0; i < xArr.length; i++) {
-			xArr[i] = x[i % x.length][(i / x.length) % x[0].length][i / (x.length * x[0].length)];
+	@Override
+	public Tensor evaluate(Tensor x, int batchIndex) {
+		if (this.trainsInFloat()) {
+			Tensor y = new Tensor(this.numOutputs, 1, 1, 1);
+			Tensor prime = new Tensor(this.numOutputs, 1, 1, 1);
+			this.evaluateBatch(x.reshape(this.inputSize[0], this.inputSize[1], this.inputSize[2], 1), y, prime, batchIndex, null);
+			return y.slice(3, 0);
 		}
-		return xArr;
+		// flat view of the input volume, same element order so no copy is needed
+		Tensor xArr = x.reshape(this.numInputs, 1, 1);
+		Tensor out = Utility.evaluate(this.A, this.b, xArr, null);
+		Tensor save = new Tensor(this.numOutputs, 1, 1);
+		this.activate(out, save);
+
+		this.lastX[batchIndex] = xArr;
+		this.lastPrime[batchIndex] = save;
+
+		return out;
 	}
 
-	public static double[][][] convertToVolume(double[] arr) {
-		double[][][] vol = new double[arr.length][1][1];
-		for (int i = 0; i < arr.length; i++) {
-			vol[i][0][0] = arr[i];
+	@Override
+	public Tensor infer(Tensor x) {
+		if (this.trainsInFloat()) {
+			return this.inferBatch(x.reshape(this.inputSize[0], this.inputSize[1], this.inputSize[2], 1)).slice(3, 0);
 		}
-		return vol;
+		return Utility.evaluate(this.A, this.b, x.reshape(this.numInputs, 1, 1), this.layerParam.actFunc);
 	}
 
 	@Override
-	public double[][][] evaluate(double[][][] x, int batchIndex) {
-		double[] outArr = Utility.evaluate(this.A, this.b, convertToArray(x), null);
-		double[] outCopy = Arrays.copyOf(outArr, outArr.length);
+	public void evaluateBatch(Tensor x, Tensor y, Tensor prime, int firstBatchIndex, double[] scratch) {
+		Tensor input = x.isContiguous() ? x : x.copy();
+		this.affine(input, y);
+		this.activate(y, prime);
+		this.record(input, prime, firstBatchIndex);
+	}
 
-		ActFuncs.getActFuncs().actFuncify(outArr, this.layerParam.actFunc);
-		double[][][] out = convertToVolume(outArr);
+	@Override
+	public Tensor inferBatch(Tensor x) {
+		Tensor y = new Tensor(this.numOutputs, 1, 1, x.shape(3));
+		this.inferBatch(x, y, null);
+		return y;
+	}
 
-		ActFuncs.getActFuncs().actFuncPrimeify(outCopy, this.layerParam.actFunc);
-		double[][][] save = convertToVolume(outCopy);
+	private void affine(Tensor x, Tensor out) {
+		// the batch is a count x numInputs matrix, so the whole layer is one multiply by A^T; x and out are contiguous
+		int count = x.shape(3);
+		for (int s = 0; s < count; s++) {
+			int o = out.offset + s * this.numOutputs;
+			if (this.trainsInFloat()) {
+				for (int i = 0; i < this.numOutputs; i++) {
+					out.data[o + i] = this.floatB[i];
+				}
+			} else {
+				System.arraycopy(this.b, 0, out.data, o, this.numOutputs);
+			}
+		}
+		multiply(this.precision, count, this.numOutputs, this.numInputs,
+				x.data, x.offset, this.numInputs, 1,
+				this.weights(), 0, 1, this.numInputs,
+				out.data, out.offset, this.numOutputs);
+	}
 
-		this.lastX[batchIndex] = x;
-		this.lastPrime[batchIndex] = save;
+	private Object weights() {
+		return this.trainsInFloat() ? this.floatA : this.A;
+	}
 
-		return out;
+	@Override
+	public void inferBatch(Tensor x, Tensor y, double[] scratch) {
+		assert y.isContiguous();
+		this.affine(x.isContiguous() ? x : x.copy(), y);
+		this.activate(y, null);
 	}
 
 	@Override
-	public double[][][] getGradientX(int i, int j, int k, int batchIndex) {
-		double[][][] gradX = new double[this.inputSize[0]][this.inputSize[1]][this.inputSize[2]];
+	public void freezeFloat() {
+		if (!this.trainsInFloat()) {
+			this.floatA = toFloat(this.A);
+			this.floatB = toFloat(this.b);
+		}
+	}
+
+	@Override
+	public void inferBatch(float[] x, float[] y, int count, float[] scratch, boolean doubleSums) {
+		for (int s = 0; s < count; s++) {
+			System.arraycopy(this.floatB, 0, y, s * this.numOutputs, this.numOutputs);
+		}
+		FloatGemm.multiply(count, this.numOutputs, this.numInputs,
+				x, 0, this.numInputs, 1,
+				this.floatA, 0, 1, this.numInputs,
+				y, 0, this.numOutputs, doubleSums);
+		this.activate(y, count);
+	}
+
+	private void activate(float[] y, int count) {
+		int width = this.layerParam.actFunc == ActFunc.SOFTMAX ? this.numOutputs : count * this.numOutputs;
+		for (int first = 0; first < count * this.numOutputs; first += width) {
+			ActFuncs.getActFuncs().actFuncify(y, first, width, this.layerParam.actFunc);
+		}
+	}
+
+	@Override
+	public void freezeInt8(double inputRange) {
+		double inputScale = Int8Gemm.scale(inputRange);
+		this.int8A = new byte[this.numOutputs * this.numInputs];
+		double[] rowScales = Int8Gemm.quantizeRows(this.trainsInFloat() ? toDouble(this.floatA) : this.A, this.numOutputs, this.numInputs, this.int8A);
+		this.sumScales = new float[this.numOutputs];
+		for (int i = 0; i < this.numOutputs; i++) {
+			this.sumScales[i] = (float) (inputScale * rowScales[i]);
+		}
+		this.inverseInputScale = (float) (1 / inputScale);
+		if (!this.trainsInFloat()) {
+			this.floatB = toFloat(this.b);
+		}
+	}
+
+	@Override
+	public int getInt8ScratchSize(int count) {
+		return count * this.numInputs;
+	}
+
+	@Override
+	public void inferBatch(float[] x, float[] y, int count, byte[] scratch, int[] sums) {
+		Int8Gemm.quantize(x, 0, count * this.numInputs, this.inverseInputScale, scratch, 0);
+		Arrays.fill(sums, 0, count * this.numOutputs, 0);
+		Int8Gemm.multiply(count, this.numOutputs, this.numInputs,
+				scratch, 0, this.numInputs, 1,
+				this.int8A, 0, 1, this.numInputs,
+				sums, 0, this.numOutputs);
+		for (int s = 0; s < count; s++) {
+			for (int i = 0; i < this.numOutputs; i++) {
+				int n = s * this.numOutputs + i;
+				y[n] = sums[n] * this.sumScales[i] + this.floatB[i];
+			}
+		}
+		this.activate(y, count);
+	}
+
+	@Override
+	public long getFrozenWeightBytes() {
+		if (this.int8A != null) {
+			return this.int8A.length + (long) Float.BYTES * (this.sumScales.length + this.floatB.length);
+		}
+		if (this.floatA != null) {
+			return (long) Float.BYTES * (this.floatA.length + this.floatB.length);
+		}
+		return (long) Double.BYTES * this.getNumWeights();
+	}
+
+	@Override
+	public int getTrainingScratchSize(int count) {
+		return count * (this.numOutputs + this.numInputs);
+	}
+
+	@Override
+	public void backwardBatch(Tensor error, Tensor errorX, Layer grad, int firstBatchIndex, double[] scratch) {
+		// with delta the count x numOutputs output error, the gradient of A is delta^T * x and the input error is delta * A;
+		// scratch holds delta followed by the recorded inputs side by side
+		int count = error.shape(3);
+		int xOffset = count * this.numOutputs;
+		FullLayer fullGrad = (FullLayer) grad;
+		for (int s = 0; s < count; s++) {
+			Tensor prime = this.lastPrime[firstBatchIndex + s];
+			Tensor x = this.lastX[firstBatchIndex + s];
+			assert x.isContiguous();
+			int d = s * this.numOutputs;
+			ActFuncs.getActFuncs().delta(error.data, error.offset + d, prime.data, prime.offset, scratch, d, this.numOutputs, this.layerParam.actFunc);
+			for (int i = 0; i < this.numOutputs; i++) {
+				if (this.trainsInFloat()) {
+					fullGrad.floatB[i] += (float) scratch[d + i];
+				} else {
+					fullGrad.b[i] += scratch[d + i];
+				}
+			}
+			System.arraycopy(x.data, x.offset, scratch, xOffset + s * this.numInputs, this.numInputs);
+		}
+		multiply(this.precision, this.numOutputs, this.numInputs, count,
+				scratch, 0, 1, this.numOutputs,
+				scratch, xOffset, this.numInputs, 1,
+				fullGrad.weights(), 0, this.numInputs);
+		if (errorX == null) {
+			return;
+		}
+		errorX.fill(0);
+		multiply(this.precision, count, this.numInputs, this.numOutputs,
+				scratch, 0, this.numOutputs, 1,
+				this.weights(), 0, this.numInputs, 1,
+				errorX.data, errorX.offset, this.numInputs);
+	}
+
+	@Override
+	public Tensor getGradientX(int i, int j, int k, int batchIndex, int[][] nonzeroRanges) {
+		assert this.layerParam.actFunc != ActFunc.SOFTMAX;
+		Tensor gradX = new Tensor(this.inputSize);
+		for (int d = 0; d < 3; d++) {
+			nonzeroRanges[d][0] = 0;
+			nonzeroRanges[d][1] = this.inputSize[d] - 1;
+		}
 		for (int xk = 0; xk < this.inputSize[2]; xk++) {
 			for (int xj = 0; xj < this.inputSize[1]; xj++) {
 				for (int xi = 0; xi < this.inputSize[0]; xi++) {
-					gradX[xi][xj][xk] = this.lastPrime[batchIndex][i][j][k] * A[i][xi + xj * this.inputSize[0] + xk * this.inputSize[0] * this.inputSize[1]];
+					gradX.set(xi, xj, xk, this.lastPrime[batchIndex].get(i, j, k) * this.weight(i * this.numInputs + xi + xj * this.inputSize[0] + xk * this.inputSize[0] * this.inputSize[1]));
 				}
 			}
 		}
 		return gradX;
 	}
 
+	private double weight(int n) {
+		return this.trainsInFloat() ? this.floatA[n] : this.A[n];
+	}
+
 	@Override
-	public void train(Layer[] grads, double trainingRate) {
-		for (Layer grad : grads) {
-			this.combineScale(grad, trainingRate);
-		}
-		Arrays.fill(this.lastX, null);
-		Arrays.fill(this.lastPrime, null);
+	public void train(Layer grad, double trainingRate) {
+		this.combineScale(grad, trainingRate);
 	}
 }
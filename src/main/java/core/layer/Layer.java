@@ -1,14 +1,20 @@
 package core.layer;
 
+import core.FloatGemm;
+import core.Gemm;
+import core.Tensor;
+
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
 
 public abstract class Layer implements Serializable {
 
 	public LayerParameters layerParam;
 
-	public double[][][][] lastX;
-	public double[][][][] lastPrime;
-	public int[][] gradXNonzeroRanges = new int[3][2];
+	public Tensor[] lastX;
+	public Tensor[] lastPrime;
+
+	public transient Layer gradient;
 
 	public Layer(LayerParameters layerParam) {
 		this.layerParam = layerParam;
@@ -29,14 +35,200 @@ public abstract class Layer implements Serializable {
 	}
 
 	public void setupLasts(int batchSize) {
-		this.lastX = new double[batchSize][][][];
-		this.lastPrime = new double[batchSize][][][];
+		this.lastX = new Tensor[batchSize];
+		this.lastPrime = new Tensor[batchSize];
+	}
+
+	public void setupGradient() {
+		if (this.gradient == null) {
+			this.gradient = this.zeroCopy();
+		} else {
+			this.gradient.zero();
+		}
+	}
+
+	public Tensor backward(Tensor error, Layer grad, int batchIndex, boolean propagate) {
+		// vector-Jacobian product: accumulates error-weighted parameter gradients into grad
+		// and returns the error with respect to this layer's input, or null if not propagating
+		Tensor errorX = propagate ? new Tensor(this.layerParam.inputSize) : null;
+		// inclusive {min, max} per input index where the gradient returned by getGradientX can be nonzero
+		int[][] ranges = new int[3][2];
+		int[] outputSize = this.layerParam.outputSize;
+		for (int k = 0; k < outputSize[2]; k++) {
+			for (int j = 0; j < outputSize[1]; j++) {
+				for (int i = 0; i < outputSize[0]; i++) {
+					double e = error.get(i, j, k);
+					if (e == 0) {
+						continue;
+					}
+					this.accumulateGradient(grad, i, j, k, e, batchIndex);
+					if (propagate) {
+						Tensor gradX = this.getGradientX(i, j, k, batchIndex, ranges);
+						for (int k1 = ranges[2][0]; k1 <= ranges[2][1]; k1++) {
+							for (int j1 = ranges[1][0]; j1 <= ranges[1][1]; j1++) {
+								for (int i1 = ranges[0][0]; i1 <= ranges[0][1]; i1++) {
+									errorX.add(i1, j1, k1, gradX.get(i1, j1, k1) * e);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		return errorX;
+	}
+
+	public Tensor evaluateBatch(Tensor x, int firstBatchIndex) {
+		// allocates the outputs, the network's training step passes its workspace to the overload below instead
+		int count = x.shape(3);
+		int[] outputSize = this.layerParam.outputSize;
+		Tensor y = new Tensor(outputSize[0], outputSize[1], outputSize[2], count);
+		Tensor prime = this.recordsPrime() ? new Tensor(outputSize[0], outputSize[1], outputSize[2], count) : null;
+		this.evaluateBatch(x, y, prime, firstBatchIndex, new double[this.getTrainingScratchSize(count)]);
+		return y;
+	}
+
+	public boolean recordsPrime() {
+		// whether the training forward pass leaves activation derivatives for backward, the layers without an
+		// activation function have none
+		return this.layerParam.actFunc != null;
+	}
+
+	public int getTrainingScratchSize(int count) {
+		return 0;
 	}
 
-	public abstract double[][][] evaluate(double[][][] x, int batchIndex);
-	public abstract double[][][] getGradientX(int i, int j, int k, int batchIndex);
-	public abstract void train(Layer[] grads, double trainingRate);
+	public void evaluateBatch(Tensor x, Tensor y, Tensor prime, int firstBatchIndex, double[] scratch) {
+		// one sample per index of the last dimension of x, with the activation derivatives in prime unless it is null
+		for (int s = 0; s < x.shape(3); s++) {
+			y.slice(3, s).copyFrom(this.evaluate(x.slice(3, s), firstBatchIndex + s));
+		}
+	}
+
+	protected void record(Tensor x, Tensor prime, int firstBatchIndex) {
+		// the per slot views backward reads, kept when they already view the same memory
+		for (int s = 0; s < x.shape(3); s++) {
+			this.lastX[firstBatchIndex + s] = sample(this.lastX[firstBatchIndex + s], x, s);
+			if (prime != null) {
+				this.lastPrime[firstBatchIndex + s] = sample(this.lastPrime[firstBatchIndex + s], prime, s);
+			}
+		}
+	}
+
+	private static Tensor sample(Tensor previous, Tensor batch, int s) {
+		int offset = batch.offset + s * batch.stride(3);
+		if (previous != null && previous.data == batch.data && previous.offset == offset
+				&& previous.isContiguous() && batch.isContiguous() && previous.length() * batch.shape(3) == batch.length()) {
+			return previous;
+		}
+		return batch.slice(3, s);
+	}
+
+	public Tensor inferBatch(Tensor x) {
+		// inference records nothing for backpropagation, so it is safe to call from several threads at once
+		int count = x.shape(3);
+		int[] outputSize = this.layerParam.outputSize;
+		Tensor y = new Tensor(outputSize[0], outputSize[1], outputSize[2], count);
+		for (int s = 0; s < count; s++) {
+			y.slice(3, s).copyFrom(this.infer(x.slice(3, s)));
+		}
+		return y;
+	}
+
+	public int getInferenceScratchSize(int count) {
+		return 0;
+	}
+
+	public void inferBatch(Tensor x, Tensor y, double[] scratch) {
+		// like inferBatch(x), with temporaries taken from scratch of getInferenceScratchSize doubles
+		y.copyFrom(this.inferBatch(x));
+	}
+
+	// float32 inference for InferenceNetwork, from float copies of double weights taken once by freezeFloat
+	public void freezeFloat() {
+	}
+
+	public int getFloatScratchSize(int count) {
+		return 0;
+	}
+
+	public abstract void inferBatch(float[] x, float[] y, int count, float[] scratch, boolean doubleSums);
+
+	// int8 inference, with inputRange the largest input magnitude seen in calibration
+	public void freezeInt8(double inputRange) {
+	}
+
+	public int getInt8ScratchSize(int count) {
+		return 0;
+	}
+
+	public void inferBatch(float[] x, float[] y, int count, byte[] scratch, int[] sums) {
+		// layers without weights stay float
+		this.inferBatch(x, y, count, null, false);
+	}
+
+	public long getFrozenWeightBytes() {
+		// the weights inference reads, at whichever precision they were frozen
+		return 0;
+	}
+
+	public Tensor backwardBatch(Tensor error, Layer grad, int firstBatchIndex, boolean propagate) {
+		int count = error.shape(3);
+		int[] inputSize = this.layerParam.inputSize;
+		Tensor errorX = propagate ? new Tensor(inputSize[0], inputSize[1], inputSize[2], count) : null;
+		this.backwardBatch(error.isContiguous() ? error : error.copy(), errorX, grad, firstBatchIndex, new double[this.getTrainingScratchSize(count)]);
+		return errorX;
+	}
+
+	public void backwardBatch(Tensor error, Tensor errorX, Layer grad, int firstBatchIndex, double[] scratch) {
+		// error and errorX are contiguous, errorX is overwritten with the input error or is null when not propagating
+		for (int s = 0; s < error.shape(3); s++) {
+			Tensor sampleErrorX = this.backward(error.slice(3, s), grad, firstBatchIndex + s, errorX != null);
+			if (errorX != null) {
+				errorX.slice(3, s).copyFrom(sampleErrorX);
+			}
+		}
+	}
+
+	static void multiply(Precision precision, int m, int n, int k,
+						 Object a, int aOffset, int aRowStride, int aColStride,
+						 Object b, int bOffset, int bRowStride, int bColStride,
+						 Object c, int cOffset, int ldc) {
+		// the GEMM of the training passes at the weights' precision, any operand may be float weights in the float modes
+		if (precision == Precision.DOUBLE) {
+			Gemm.multiply(m, n, k, (double[]) a, aOffset, aRowStride, aColStride, (double[]) b, bOffset, bRowStride, bColStride, (double[]) c, cOffset, ldc);
+		} else {
+			FloatGemm.multiply(m, n, k, a, aOffset, aRowStride, aColStride, b, bOffset, bRowStride, bColStride, c, cOffset, ldc, precision == Precision.FLOAT_DOUBLE_SUMS);
+		}
+	}
+
+	static float[] toFloat(double[] values) {
+		float[] floats = new float[values.length];
+		for (int n = 0; n < values.length; n++) {
+			floats[n] = (float) values[n];
+		}
+		return floats;
+	}
+
+	static double[] toDouble(float[] values) {
+		double[] doubles = new double[values.length];
+		for (int n = 0; n < values.length; n++) {
+			doubles[n] = values[n];
+		}
+		return doubles;
+	}
+
+	public abstract Tensor evaluate(Tensor x, int batchIndex);
+	public abstract Tensor infer(Tensor x);
+	public abstract Tensor getGradientX(int i, int j, int k, int batchIndex, int[][] nonzeroRanges);
+	public abstract void train(Layer grad, double trainingRate);
 	public abstract void combineScale(Layer grad, double scale);
 	public abstract Layer zeroCopy();
-	public abstract void assignGradientInto(Layer receiveGrad, int i, int j, int k, int batchIndex);
+	public abstract void zero();
+	public abstract void accumulateGradient(Layer grad, int i, int j, int k, double scale, int batchIndex);
+
+	// weights in a fixed order, used by the binary model format
+	public abstract int getNumWeights();
+	public abstract void saveWeights(DoubleBuffer into);
+	public abstract void loadWeights(DoubleBuffer from);
 }
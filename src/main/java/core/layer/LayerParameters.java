@@ -19,6 +19,9 @@ public abstract class LayerParameters implements Serializable {
 	public final int numConvs;
 	public final int pad;
 	public final int convMod;
+	public final ConvEngine convEngine;
+	public final ConvMode convMode;
+	public final boolean bias;
 
 	public final LayerType layerType;
 
@@ -31,6 +34,9 @@ public abstract class LayerParameters implements Serializable {
 		this.stride = 0;
 		this.pad = 0;
 		this.convMod = 0;
+		this.convEngine = null;
+		this.convMode = null;
+		this.bias = false;
 		this.poolType = null;
 		this.layerType = LayerType.FULL;
 	}
@@ -43,11 +49,14 @@ public abstract class LayerParameters implements Serializable {
 		this.pad = 0;
 		this.stride = stride;
 		this.convMod = 0;
+		this.convEngine = null;
+		this.convMode = null;
+		this.bias = false;
 		this.poolType = poolType;
 		this.layerType = LayerType.POOL;
 	}
 
-	public LayerParameters(int convRadius, int numConvs, int pad, ActFunc actFunc) {
+	public LayerParameters(int convRadius, int numConvs, int pad, ActFunc actFunc, ConvEngine convEngine, ConvMode convMode, boolean bias) {
 		this.actFunc = actFunc;
 		this.poolSize = 0;
 		this.convRadius = convRadius;
@@ -55,29 +64,46 @@ public abstract class LayerParameters implements Serializable {
 		this.pad = pad;
 		this.stride = 0;
 		this.convMod = Math.min(0, 1 + pad - convRadius);
+		this.convEngine = convEngine;
+		this.convMode = convMode;
+		this.bias = bias;
 		this.poolType = null;
 		this.layerType = LayerType.CONV;
 	}
 
+	public boolean isMultiChannel() {
+		// only convolutional layers have a mode
+		return this.convMode == ConvMode.MULTI_CHANNEL;
+	}
+
 	public int[] getOutputSize(int[] inputSize) {
 		return switch (layerType) {
 			case FULL -> this.outputSize; // full layer should already know this
 			case POOL -> new int[]{inputSize[0] / stride, inputSize[1] / stride, inputSize[2]};
-			case CONV -> new int[]{inputSize[0] + (2 * convMod), inputSize[1] + (2 * convMod), inputSize[2] * numConvs};
+			case CONV -> new int[]{inputSize[0] + (2 * convMod), inputSize[1] + (2 * convMod), isMultiChannel() ? numConvs : inputSize[2] * numConvs};
 		};
 	}
 
 	public Layer makeLayer(int[] inputSize, int[] outputSize) {
+		return this.makeLayer(inputSize, outputSize, Precision.DOUBLE, true);
+	}
+
+	private Layer makeLayer(int[] inputSize, int[] outputSize, Precision precision, boolean randomize) {
 		this.inputSize = inputSize;
 		this.outputSize = outputSize;
 		return switch (layerType) {
-			case FULL -> new FullLayer(this);
+			case FULL -> new FullLayer(this, precision, randomize);
 			case POOL -> new PoolLayer(this);
-			case CONV -> new ConvolutionalLayer(this);
+			case CONV -> new ConvolutionalLayer(this, precision, randomize);
 		};
 	}
 
 	public Layer makeLayer(int[] inputSize) {
 		return this.makeLayer(inputSize, this.getOutputSize(inputSize));
 	}
+
+	public Layer makeLayer(int[] inputSize, Precision precision, boolean randomize) {
+		// weights left at 0 when not randomized, for layers that are about to be loaded
+		return this.makeLayer(inputSize, this.getOutputSize(inputSize), precision, randomize);
+	}
 }
@@ -1,14 +1,18 @@
 package core.layer;
 
-import core.Utility;
+import core.Tensor;
 
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 
 public class PoolLayer extends Layer {
 
-	int[] coordsOfLargest;
 	double[] ks;
 
+	// per batch index, the input offset (i + j * width + k * width * height) of the max each output took; kept
+	// across steps so training allocates nothing here once every index has run
+	private transient int[][] lastArgmax;
+
 	public PoolLayer(LayerParameters layerParams) {
 		super(layerParams);
 		ks = new double[this.layerParam.inputSize[2]]; // for avg
@@ -16,99 +20,256 @@ public class PoolLayer extends Layer {
 	}
 
 	@Override
-	public double[][][] evaluate(double[][][] x, int batchIndex) {
-		double[][][] y = new double[this.layerParam.outputSize[0]][this.layerParam.outputSize[1]][this.layerParam.outputSize[2]];
+	public void setupLasts(int batchSize) {
+		super.setupLasts(batchSize);
+		this.lastArgmax = new int[batchSize][];
+	}
+
+	@Override
+	public Tensor evaluate(Tensor x, int batchIndex) {
+		// backward needs only the argmax, so unlike the other layers this does not hold on to x
+		Tensor y = new Tensor(this.layerParam.outputSize);
+		this.pool(x, 0, y.data, 0, this.argmax(batchIndex));
+		return y;
+	}
+
+	@Override
+	public void evaluateBatch(Tensor x, Tensor y, Tensor prime, int firstBatchIndex, double[] scratch) {
+		for (int s = 0; s < x.shape(3); s++) {
+			this.pool(x, s * x.stride(3), y.data, y.offset + s * this.outputLength(), this.argmax(firstBatchIndex + s));
+		}
+	}
+
+	private int inputLength() {
+		return this.layerParam.inputSize[0] * this.layerParam.inputSize[1] * this.layerParam.inputSize[2];
+	}
+
+	private int outputLength() {
+		return this.layerParam.outputSize[0] * this.layerParam.outputSize[1] * this.layerParam.outputSize[2];
+	}
+
+	private int[] argmax(int batchIndex) {
+		if (this.layerParam.poolType != PoolType.MAX) {
+			return null;
+		}
+		if (this.lastArgmax[batchIndex] == null) {
+			this.lastArgmax[batchIndex] = new int[this.outputLength()];
+		}
+		return this.lastArgmax[batchIndex];
+	}
+
+	@Override
+	public Tensor infer(Tensor x) {
+		Tensor y = new Tensor(this.layerParam.outputSize);
+		this.pool(x, 0, y.data, 0, null);
+		return y;
+	}
+
+	@Override
+	public void inferBatch(Tensor x, Tensor y, double[] scratch) {
+		assert y.isContiguous();
+		for (int s = 0; s < x.shape(3); s++) {
+			this.pool(x, s * x.stride(3), y.data, y.offset + s * this.outputLength(), null);
+		}
+	}
+
+	@Override
+	public void inferBatch(float[] x, float[] y, int count, float[] scratch, boolean doubleSums) {
+		// the same windows as pool, with values past the edge counting as 0 for AVG and ignored for MAX
 		int range = this.layerParam.poolSize;
 		int stride = this.layerParam.stride;
-		for (int k = 0; k < this.layerParam.outputSize[2]; k++) {
-			for (int j = 0; j < this.layerParam.outputSize[1]; j++) {
-				for (int i = 0; i < this.layerParam.outputSize[0]; i++) {
-					switch (this.layerParam.poolType) {
-						case MAX -> y[i][j][k] = maxInRange(x, i * stride, j * stride, k, range);
-						case AVG -> y[i][j][k] = avgInRange(x, i * stride, j * stride, k, range);
+		int[] inputSize = this.layerParam.inputSize;
+		int[] outputSize = this.layerParam.outputSize;
+		int inputLength = inputSize[0] * inputSize[1] * inputSize[2];
+		int outputLength = outputSize[0] * outputSize[1] * outputSize[2];
+		for (int s = 0; s < count; s++) {
+			for (int k = 0; k < outputSize[2]; k++) {
+				int channel = s * inputLength + k * inputSize[0] * inputSize[1];
+				for (int j = 0; j < outputSize[1]; j++) {
+					int jEnd = Math.min(j * stride + range, inputSize[1]);
+					for (int i = 0; i < outputSize[0]; i++) {
+						int iEnd = Math.min(i * stride + range, inputSize[0]);
+						// one switch per window as in pool, not per value
+						double v = switch (this.layerParam.poolType) {
+							case MAX -> {
+								float max = -Float.MAX_VALUE;
+								for (int j1 = j * stride; j1 < jEnd; j1++) {
+									for (int i1 = i * stride; i1 < iEnd; i1++) {
+										float xv = x[channel + i1 + j1 * inputSize[0]];
+										max = xv > max ? xv : max;
+									}
+								}
+								yield max;
+							}
+							case AVG -> {
+								double sum = 0;
+								for (int j1 = j * stride; j1 < jEnd; j1++) {
+									for (int i1 = i * stride; i1 < iEnd; i1++) {
+										sum += x[channel + i1 + j1 * inputSize[0]];
+									}
+								}
+								yield sum / (range * range);
+							}
+						};
+						y[s * outputLength + i + j * outputSize[0] + k * outputSize[0] * outputSize[1]] = (float) v;
 					}
-
 				}
 			}
 		}
-		this.lastX[batchIndex] = x;
-		return y;
 	}
 
-	private double avgInRange(double[][][] x, int i, int j, int k, int range) {
-		double avg = 0;
-		for (int i1 = i; i1 < i + range; i1++) {
-			for (int j1 = j; j1 < j + range; j1++) {
-				avg += Utility.getOrDefault(x, i1, j1, k, 0);
+	private void pool(Tensor x, int sampleOffset, double[] y, int yOffset, int[] argmax) {
+		// windows are clipped to the input, and MAX keeps the first of equal values
+		int range = this.layerParam.poolSize;
+		int stride = this.layerParam.stride;
+		int[] inputSize = this.layerParam.inputSize;
+		int[] outputSize = this.layerParam.outputSize;
+		int xi1 = x.stride(0);
+		int xj1 = x.stride(1);
+		int o = 0;
+		for (int k = 0; k < outputSize[2]; k++) {
+			for (int j = 0; j < outputSize[1]; j++) {
+				int jEnd = Math.min(j * stride + range, inputSize[1]);
+				for (int i = 0; i < outputSize[0]; i++) {
+					int iEnd = Math.min(i * stride + range, inputSize[0]);
+					int corner = x.index(i * stride, j * stride, k) + sampleOffset;
+					switch (this.layerParam.poolType) {
+						case MAX -> {
+							double max = x.data[corner];
+							int maxI = i * stride;
+							int maxJ = j * stride;
+							for (int i1 = i * stride; i1 < iEnd; i1++) {
+								int index = corner + (i1 - i * stride) * xi1;
+								for (int j1 = j * stride; j1 < jEnd; j1++) {
+									if (x.data[index] > max) {
+										max = x.data[index];
+										maxI = i1;
+										maxJ = j1;
+									}
+									index += xj1;
+								}
+							}
+							y[yOffset + o] = max;
+							if (argmax != null) {
+								argmax[o] = maxI + (maxJ + k * inputSize[1]) * inputSize[0];
+							}
+						}
+						case AVG -> {
+							double sum = 0;
+							for (int i1 = i * stride; i1 < iEnd; i1++) {
+								int index = corner + (i1 - i * stride) * xi1;
+								for (int j1 = j * stride; j1 < jEnd; j1++) {
+									sum += x.data[index];
+									index += xj1;
+								}
+							}
+							y[yOffset + o] = sum / (range * range);
+						}
+					}
+					o++;
+				}
 			}
 		}
-		return avg / (range * range);
 	}
 
-	public static double maxInRange(double[][][] x, int i, int j, int k, int range) {
-		double max = x[i][j][k];
-		for (int i1 = i; i1 < i + range; i1++) {
-			for (int j1 = j; j1 < j + range; j1++) {
-				double m = Utility.getOrDefault(x, i1, j1, k, -Double.MAX_VALUE);
-				if (m > max) {
-					max = m;
+	@Override
+	public Tensor backward(Tensor error, Layer grad, int batchIndex, boolean propagate) {
+		// nothing to train, so this is only the input error, in one pass over the outputs
+		if (!propagate) {
+			return null;
+		}
+		Tensor e = error.isContiguous() ? error : error.copy();
+		Tensor errorX = new Tensor(this.layerParam.inputSize);
+		this.scatter(e.data, e.offset, errorX.data, 0, batchIndex);
+		return errorX;
+	}
+
+	@Override
+	public void backwardBatch(Tensor error, Tensor errorX, Layer grad, int firstBatchIndex, double[] scratch) {
+		if (errorX == null) {
+			return;
+		}
+		errorX.fill(0);
+		for (int s = 0; s < error.shape(3); s++) {
+			this.scatter(error.data, error.offset + s * this.outputLength(), errorX.data, errorX.offset + s * this.inputLength(), firstBatchIndex + s);
+		}
+	}
+
+	private void scatter(double[] error, int errorOffset, double[] errorX, int errorXOffset, int batchIndex) {
+		// MAX sends each output's error to the input it took, AVG spreads it evenly over the window; both sides are
+		// one contiguous sample, errorX starts at zero and gets sums where windows overlap
+		int range = this.layerParam.poolSize;
+		int stride = this.layerParam.stride;
+		int[] inputSize = this.layerParam.inputSize;
+		int[] outputSize = this.layerParam.outputSize;
+		int[] argmax = this.lastArgmax[batchIndex];
+		int o = 0;
+		for (int k = 0; k < outputSize[2]; k++) {
+			for (int j = 0; j < outputSize[1]; j++) {
+				int jEnd = Math.min(j * stride + range, inputSize[1]);
+				for (int i = 0; i < outputSize[0]; i++) {
+					double e = error[errorOffset + o];
+					switch (this.layerParam.poolType) {
+						case MAX -> errorX[errorXOffset + argmax[o]] += e;
+						case AVG -> {
+							int iEnd = Math.min(i * stride + range, inputSize[0]);
+							double share = e / (range * range);
+							for (int j1 = j * stride; j1 < jEnd; j1++) {
+								int index = errorXOffset + i * stride + (j1 + k * inputSize[1]) * inputSize[0];
+								for (int i1 = i * stride; i1 < iEnd; i1++) {
+									errorX[index++] += share;
+								}
+							}
+						}
+					}
+					o++;
 				}
 			}
 		}
-		return max;
 	}
 
 	@Override
-	public double[][][] getGradientX(int i, int j, int k, int batchIndex) {
-		double[][][] gradX = new double[this.layerParam.inputSize[0]][this.layerParam.inputSize[1]][this.layerParam.inputSize[2]];
+	public Tensor getGradientX(int i, int j, int k, int batchIndex, int[][] nonzeroRanges) {
+		Tensor gradX = new Tensor(this.layerParam.inputSize);
 		int xi = this.layerParam.stride * i;
 		int xj = this.layerParam.stride * j;
 		int range = this.layerParam.poolSize;
 		switch (this.layerParam.poolType) {
 			case MAX -> {
-				int[] coordsOfLargest = new int[]{xi, xj};
-				double max = this.lastX[batchIndex][xi][xj][k];
-				for (int xi1 = xi; xi1 < xi + range; xi1++) {
-					for (int xj1 = xj; xj1 < xj + range; xj1++) {
-						double m = Utility.getOrDefault(this.lastX[batchIndex], xi1, xj1, k, -Double.MAX_VALUE);
-						if (m > max) {
-							max = m;
-							coordsOfLargest[0] = xi1;
-							coordsOfLargest[1] = xj1;
-						}
-					}
-				}
-				this.coordsOfLargest = coordsOfLargest;
-				this.gradXNonzeroRanges[0][0] = coordsOfLargest[0];
-				this.gradXNonzeroRanges[0][1] = coordsOfLargest[0];
-				this.gradXNonzeroRanges[1][0] = coordsOfLargest[1];
-				this.gradXNonzeroRanges[1][1] = coordsOfLargest[1];
-				this.gradXNonzeroRanges[2][0] = k;
-				this.gradXNonzeroRanges[2][1] = k;
-				gradX[coordsOfLargest[0]][coordsOfLargest[1]][k] = 1;
+				int[] outputSize = this.layerParam.outputSize;
+				int largest = this.lastArgmax[batchIndex][i + (j + k * outputSize[1]) * outputSize[0]];
+				int[] inputSize = this.layerParam.inputSize;
+				int largestI = largest % inputSize[0];
+				int largestJ = largest / inputSize[0] % inputSize[1];
+				nonzeroRanges[0][0] = largestI;
+				nonzeroRanges[0][1] = largestI;
+				nonzeroRanges[1][0] = largestJ;
+				nonzeroRanges[1][1] = largestJ;
+				nonzeroRanges[2][0] = k;
+				nonzeroRanges[2][1] = k;
+				gradX.set(largestI, largestJ, k, 1);
 			}
 			case AVG -> {
 				for (int xi1 = xi; xi1 < xi + range; xi1++) {
 					for (int xj1 = xj; xj1 < xj + range; xj1++) {
-						Utility.setIfCan(gradX, xi1, xj1, this.ks);
+						gradX.setIfCan(xi1, xj1, k, this.ks[k]);
 					}
 				}
-				this.gradXNonzeroRanges[0][0] = xi;
-				this.gradXNonzeroRanges[0][1] = Math.min(this.layerParam.inputSize[0] - 1, xi + range);
-				this.gradXNonzeroRanges[1][0] = xj;
-				this.gradXNonzeroRanges[1][1] = Math.min(this.layerParam.inputSize[1] - 1, xj + range);
-				this.gradXNonzeroRanges[2][0] = k;
-				this.gradXNonzeroRanges[2][1] = k;
+				nonzeroRanges[0][0] = xi;
+				nonzeroRanges[0][1] = Math.min(this.layerParam.inputSize[0] - 1, xi + range);
+				nonzeroRanges[1][0] = xj;
+				nonzeroRanges[1][1] = Math.min(this.layerParam.inputSize[1] - 1, xj + range);
+				nonzeroRanges[2][0] = k;
+				nonzeroRanges[2][1] = k;
 			}
 		}
 		return gradX;
 	}
 
 	@Override
-	public void train(Layer[] grads, double trainingRate) {
+	public void train(Layer grad, double trainingRate) {
 		// pool does not train
-		assert grads instanceof PoolLayer[];
-		Arrays.fill(this.lastX, null);
+		assert grad instanceof PoolLayer;
 	}
 
 	@Override
@@ -123,7 +284,27 @@ public class PoolLayer extends Layer {
 	}
 
 	@Override
-	public void assignGradientInto(Layer receiveGrad, int i, int j, int k, int batchIndex) {
+	public void zero() {
+		// pool does not train
+	}
+
+	@Override
+	public int getNumWeights() {
+		return 0;
+	}
+
+	@Override
+	public void saveWeights(DoubleBuffer into) {
+		// pool has no weights
+	}
+
+	@Override
+	public void loadWeights(DoubleBuffer from) {
+		// pool has no weights
+	}
+
+	@Override
+	public void accumulateGradient(Layer grad, int i, int j, int k, double scale, int batchIndex) {
 		// pool does not train
 	}
 }
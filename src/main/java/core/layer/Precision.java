@@ -0,0 +1,7 @@
+package core.layer;
+
+public enum Precision {
+	// storage of the full and convolutional weights and gradients in training
+	// FLOAT_DOUBLE_SUMS sums each GEMM block in double before rounding
+	DOUBLE, FLOAT, FLOAT_DOUBLE_SUMS
+}
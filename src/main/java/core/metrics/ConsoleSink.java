@@ -0,0 +1,35 @@
+package core.metrics;
+
+import core.Utility;
+
+public class ConsoleSink implements MetricsSink {
+
+	@Override
+	public void event(String message) {
+		System.out.println(message);
+	}
+
+	@Override
+	public void report(MetricsSnapshot s) {
+		String text = "Cycle " + s.steps + (s.targetSteps > 0 ? "/" + s.targetSteps : "")
+				+ ", Run Avg Mse =" + Utility.roundString(s.windowLoss)
+				+ ", All Avg Mse =" + Utility.roundString(s.allTimeLoss)
+				+ ", " + Math.round(s.recentSamplesPerSecond) + " samples/s"
+				+ ", step p50 " + Math.round(s.stepP50Micros) + " us p99 " + Math.round(s.stepP99Micros) + " us";
+		if (s.allocatedBytesPerStep > 0) {
+			text += ", " + Math.round(s.allocatedBytesPerStep / 1024) + " KB/step";
+		}
+		if (s.queueDepth >= 0) {
+			text += ", Queue = " + s.queueDepth + ", Stalls = " + s.stalls + " (" + Math.round(s.stallMillis) + " ms)";
+		}
+		System.out.println(text);
+		if (s.last) {
+			for (int l = 0; l < s.layerNames.length; l++) {
+				System.out.println("  " + s.layerNames[l]
+						+ ": forward " + Math.round(s.forwardMillis[l]) + " ms"
+						+ ", backward " + Math.round(s.backwardMillis[l]) + " ms"
+						+ ", update " + Math.round(s.updateMillis[l]) + " ms");
+			}
+		}
+	}
+}
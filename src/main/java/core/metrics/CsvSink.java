@@ -0,0 +1,57 @@
+package core.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CsvSink implements MetricsSink {
+
+	private final BufferedWriter out;
+	private boolean headerWritten = false;
+
+	public CsvSink(Path path) throws IOException {
+		this.out = Files.newBufferedWriter(path);
+	}
+
+	@Override
+	public synchronized void report(MetricsSnapshot s) {
+		try {
+			if (!this.headerWritten) {
+				StringBuilder header = new StringBuilder("timeMillis,steps,samples,samplesPerSecond,windowLoss,allTimeLoss,"
+						+ "stepP50Micros,stepP99Micros,allocatedBytesPerStep,queueDepth,stalls,stallMillis");
+				for (String name : s.layerNames) {
+					header.append(',').append(name).append("_forwardMillis")
+							.append(',').append(name).append("_backwardMillis")
+							.append(',').append(name).append("_updateMillis");
+				}
+				this.out.write(header.toString());
+				this.out.newLine();
+				this.headerWritten = true;
+			}
+			StringBuilder row = new StringBuilder();
+			row.append(s.timeMillis).append(',').append(s.steps).append(',').append(s.samples)
+					.append(',').append(s.recentSamplesPerSecond).append(',').append(s.windowLoss).append(',').append(s.allTimeLoss)
+					.append(',').append(s.stepP50Micros).append(',').append(s.stepP99Micros).append(',').append(s.allocatedBytesPerStep)
+					.append(',').append(s.queueDepth).append(',').append(s.stalls).append(',').append(s.stallMillis);
+			for (int l = 0; l < s.layerNames.length; l++) {
+				row.append(',').append(s.forwardMillis[l]).append(',').append(s.backwardMillis[l]).append(',').append(s.updateMillis[l]);
+			}
+			this.out.write(row.toString());
+			this.out.newLine();
+			this.out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			this.out.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package core.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class JmxSink implements MetricsSink, TrainingMetricsMXBean {
+
+	// exposes the latest snapshot as gradientneuralnetwork:type=Trainer,name=<name>
+	private final ObjectName objectName;
+	private volatile MetricsSnapshot latest;
+
+	public JmxSink(String name) throws JMException {
+		this.objectName = new ObjectName("gradientneuralnetwork:type=Trainer,name=" + ObjectName.quote(name));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(this.objectName)) {
+			server.unregisterMBean(this.objectName);
+		}
+		server.registerMBean(this, this.objectName);
+	}
+
+	@Override
+	public void report(MetricsSnapshot snapshot) {
+		this.latest = snapshot;
+	}
+
+	@Override
+	public void close() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+		} catch (JMException e) {
+			// already gone
+		}
+	}
+
+	@Override
+	public long getSteps() {
+		return this.latest == null ? 0 : this.latest.steps;
+	}
+
+	@Override
+	public long getSamples() {
+		return this.latest == null ? 0 : this.latest.samples;
+	}
+
+	@Override
+	public double getSamplesPerSecond() {
+		return this.latest == null ? 0 : this.latest.recentSamplesPerSecond;
+	}
+
+	@Override
+	public double getWindowLoss() {
+		return this.latest == null ? 0 : this.latest.windowLoss;
+	}
+
+	@Override
+	public double getAllTimeLoss() {
+		return this.latest == null ? 0 : this.latest.allTimeLoss;
+	}
+
+	@Override
+	public double getStepP50Micros() {
+		return this.latest == null ? 0 : this.latest.stepP50Micros;
+	}
+
+	@Override
+	public double getStepP99Micros() {
+		return this.latest == null ? 0 : this.latest.stepP99Micros;
+	}
+
+	@Override
+	public double getAllocatedBytesPerStep() {
+		return this.latest == null ? 0 : this.latest.allocatedBytesPerStep;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return this.latest == null ? -1 : this.latest.queueDepth;
+	}
+
+	@Override
+	public long getStalls() {
+		return this.latest == null ? 0 : this.latest.stalls;
+	}
+
+	@Override
+	public String[] getLayerNames() {
+		return this.latest == null ? new String[0] : this.latest.layerNames.clone();
+	}
+
+	@Override
+	public double[] getForwardMillis() {
+		return this.latest == null ? new double[0] : this.latest.forwardMillis.clone();
+	}
+
+	@Override
+	public double[] getBackwardMillis() {
+		return this.latest == null ? new double[0] : this.latest.backwardMillis.clone();
+	}
+
+	@Override
+	public double[] getUpdateMillis() {
+		return this.latest == null ? new double[0] : this.latest.updateMillis.clone();
+	}
+}
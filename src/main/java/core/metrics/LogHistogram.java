@@ -0,0 +1,62 @@
+package core.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LogHistogram {
+
+	// four buckets per power of two, so quantiles are within about 25% while recording is a single atomic add
+	private static final int numBuckets = 256;
+
+	private final AtomicLongArray counts = new AtomicLongArray(numBuckets);
+
+	public void record(long value) {
+		this.counts.incrementAndGet(bucket(Math.max(0, value)));
+	}
+
+	private static int bucket(long value) {
+		if (value < 4) {
+			return (int) value;
+		}
+		int log = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) ((value >>> (log - 2)) & 3);
+		return 4 * (log - 1) + sub;
+	}
+
+	private static long lowerBound(int bucket) {
+		if (bucket < 4) {
+			return bucket;
+		}
+		int log = bucket / 4 + 1;
+		return (4L + bucket % 4) << (log - 2);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int b = 0; b < numBuckets; b++) {
+			count += this.counts.get(b);
+		}
+		return count;
+	}
+
+	// the lower bound of the bucket holding quantile q
+	public long quantile(double q) {
+		long[] snapshot = new long[numBuckets];
+		long count = 0;
+		for (int b = 0; b < numBuckets; b++) {
+			snapshot[b] = this.counts.get(b);
+			count += snapshot[b];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(q * count);
+		long seen = 0;
+		for (int b = 0; b < numBuckets; b++) {
+			seen += snapshot[b];
+			if (seen >= rank) {
+				return lowerBound(b);
+			}
+		}
+		return lowerBound(numBuckets - 1);
+	}
+}
@@ -0,0 +1,12 @@
+package core.metrics;
+
+public interface MetricsSink extends AutoCloseable {
+
+	void report(MetricsSnapshot snapshot);
+
+	// one off messages from training, such as the data running out
+	default void event(String message) {}
+
+	@Override
+	default void close() {}
+}
@@ -0,0 +1,57 @@
+package core.metrics;
+
+public class MetricsSnapshot {
+
+	public final long timeMillis;
+	// true for the report at the end of a training run
+	public final boolean last;
+
+	public final long steps;
+	public final long targetSteps;
+	public final long samples;
+	// over the whole run and since the previous snapshot
+	public final double samplesPerSecond;
+	public final double recentSamplesPerSecond;
+
+	public final double windowLoss;
+	public final double allTimeLoss;
+
+	public final double stepP50Micros;
+	public final double stepP99Micros;
+	public final double allocatedBytesPerStep;
+
+	public final String[] layerNames;
+	public final double[] forwardMillis;
+	public final double[] backwardMillis;
+	public final double[] updateMillis;
+
+	// only meaningful when batches are prefetched, -1 otherwise
+	public final int queueDepth;
+	public final long stalls;
+	public final double stallMillis;
+
+	MetricsSnapshot(long timeMillis, boolean last, long steps, long targetSteps, long samples, double samplesPerSecond,
+					double recentSamplesPerSecond, double windowLoss, double allTimeLoss, double stepP50Micros,
+					double stepP99Micros, double allocatedBytesPerStep, String[] layerNames, double[] forwardMillis,
+					double[] backwardMillis, double[] updateMillis, int queueDepth, long stalls, double stallMillis) {
+		this.timeMillis = timeMillis;
+		this.last = last;
+		this.steps = steps;
+		this.targetSteps = targetSteps;
+		this.samples = samples;
+		this.samplesPerSecond = samplesPerSecond;
+		this.recentSamplesPerSecond = recentSamplesPerSecond;
+		this.windowLoss = windowLoss;
+		this.allTimeLoss = allTimeLoss;
+		this.stepP50Micros = stepP50Micros;
+		this.stepP99Micros = stepP99Micros;
+		this.allocatedBytesPerStep = allocatedBytesPerStep;
+		this.layerNames = layerNames;
+		this.forwardMillis = forwardMillis;
+		this.backwardMillis = backwardMillis;
+		this.updateMillis = updateMillis;
+		this.queueDepth = queueDepth;
+		this.stalls = stalls;
+		this.stallMillis = stallMillis;
+	}
+}
@@ -0,0 +1,180 @@
+package core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TrainingMetrics {
+
+	// counters are LongAdders so worker threads can record concurrently; snapshots are only built once per report interval
+	private final String[] layerNames;
+	private final LongAdder[] forwardNanos;
+	private final LongAdder[] backwardNanos;
+	private final LongAdder[] updateNanos;
+
+	private final LongAdder steps = new LongAdder();
+	private final LongAdder samples = new LongAdder();
+	private final LongAdder allocatedBytes = new LongAdder();
+	private final LogHistogram stepNanos = new LogHistogram();
+
+	private volatile long targetSteps = 0;
+	private volatile double windowLoss = 0;
+	private volatile double allTimeLoss = 0;
+	private volatile int queueDepth = -1;
+	private volatile long stalls = 0;
+	private volatile double stallMillis = 0;
+	// reading per thread allocation counters costs a call per thread and step, so it is off unless asked for
+	private volatile boolean countAllocations = false;
+
+	private final List<MetricsSink> sinks = new ArrayList<>();
+	private final long reportIntervalMillis;
+	private final long startNanos = System.nanoTime();
+	private long lastReportNanos = this.startNanos;
+	private long lastReportSamples = 0;
+	private long nextReportMillis = 0;
+
+	private static final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+	public TrainingMetrics(String[] layerNames, long reportIntervalMillis) {
+		this.layerNames = layerNames.clone();
+		this.forwardNanos = adders(layerNames.length);
+		this.backwardNanos = adders(layerNames.length);
+		this.updateNanos = adders(layerNames.length);
+		this.reportIntervalMillis = reportIntervalMillis;
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		// allocation counting is a HotSpot extension, without it bytes per step are reported as 0
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+				&& bean.isThreadAllocatedMemorySupported()) {
+			return bean;
+		}
+		return null;
+	}
+
+	public static long allocatedBytes(Thread thread) {
+		return threads == null ? 0 : Math.max(0, threads.getThreadAllocatedBytes(thread.getId()));
+	}
+
+	public void setCountAllocations(boolean countAllocations) {
+		if (countAllocations && threads != null) {
+			threads.setThreadAllocatedMemoryEnabled(true);
+		}
+		this.countAllocations = countAllocations;
+	}
+
+	public boolean countsAllocations() {
+		return this.countAllocations;
+	}
+
+	public void addSink(MetricsSink sink) {
+		synchronized (this.sinks) {
+			this.sinks.add(sink);
+		}
+	}
+
+	public void clearSinks() {
+		synchronized (this.sinks) {
+			for (MetricsSink sink : this.sinks) {
+				sink.close();
+			}
+			this.sinks.clear();
+		}
+	}
+
+	public void recordForward(int layer, long nanos) {
+		this.forwardNanos[layer].add(nanos);
+	}
+
+	public void recordBackward(int layer, long nanos) {
+		this.backwardNanos[layer].add(nanos);
+	}
+
+	public void recordUpdate(int layer, long nanos) {
+		this.updateNanos[layer].add(nanos);
+	}
+
+	public void recordStep(int stepSamples, long nanos, long stepAllocatedBytes) {
+		this.steps.increment();
+		this.samples.add(stepSamples);
+		this.allocatedBytes.add(stepAllocatedBytes);
+		this.stepNanos.record(nanos);
+	}
+
+	public void setTargetSteps(long targetSteps) {
+		this.targetSteps = targetSteps;
+	}
+
+	public void setLoss(double windowLoss, double allTimeLoss) {
+		this.windowLoss = windowLoss;
+		this.allTimeLoss = allTimeLoss;
+	}
+
+	public void setLoader(int queueDepth, long stalls, double stallMillis) {
+		this.queueDepth = queueDepth;
+		this.stalls = stalls;
+		this.stallMillis = stallMillis;
+	}
+
+	public void maybeReport() {
+		long now = System.currentTimeMillis();
+		if (now >= this.nextReportMillis) {
+			this.nextReportMillis = now + this.reportIntervalMillis;
+			this.report(false);
+		}
+	}
+
+	public void event(String message) {
+		synchronized (this.sinks) {
+			for (MetricsSink sink : this.sinks) {
+				sink.event(message);
+			}
+		}
+	}
+
+	public void report(boolean last) {
+		MetricsSnapshot snapshot = this.snapshot(last);
+		synchronized (this.sinks) {
+			for (MetricsSink sink : this.sinks) {
+				sink.report(snapshot);
+			}
+		}
+	}
+
+	public synchronized MetricsSnapshot snapshot(boolean last) {
+		long now = System.nanoTime();
+		long totalSamples = this.samples.sum();
+		long totalSteps = this.steps.sum();
+		double seconds = (now - this.startNanos) / 1e9;
+		double recentSeconds = (now - this.lastReportNanos) / 1e9;
+		double recentRate = recentSeconds > 0 ? (totalSamples - this.lastReportSamples) / recentSeconds : 0;
+		this.lastReportNanos = now;
+		this.lastReportSamples = totalSamples;
+		return new MetricsSnapshot(
+				System.currentTimeMillis(), last,
+				totalSteps, this.targetSteps, totalSamples,
+				seconds > 0 ? totalSamples / seconds : 0, recentRate,
+				this.windowLoss, this.allTimeLoss,
+				this.stepNanos.quantile(0.5) / 1e3, this.stepNanos.quantile(0.99) / 1e3,
+				totalSteps > 0 ? ((double) this.allocatedBytes.sum()) / totalSteps : 0,
+				this.layerNames.clone(), millis(this.forwardNanos), millis(this.backwardNanos), millis(this.updateNanos),
+				this.queueDepth, this.stalls, this.stallMillis);
+	}
+
+	private static double[] millis(LongAdder[] nanos) {
+		double[] millis = new double[nanos.length];
+		for (int i = 0; i < nanos.length; i++) {
+			millis[i] = nanos[i].sum() / 1e6;
+		}
+		return millis;
+	}
+}
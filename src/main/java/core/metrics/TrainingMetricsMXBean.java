@@ -0,0 +1,19 @@
+package core.metrics;
+
+public interface TrainingMetricsMXBean {
+
+	long getSteps();
+	long getSamples();
+	double getSamplesPerSecond();
+	double getWindowLoss();
+	double getAllTimeLoss();
+	double getStepP50Micros();
+	double getStepP99Micros();
+	double getAllocatedBytesPerStep();
+	int getQueueDepth();
+	long getStalls();
+	String[] getLayerNames();
+	double[] getForwardMillis();
+	double[] getBackwardMillis();
+	double[] getUpdateMillis();
+}
@@ -1,15 +1,22 @@
 package core.network;
 
+import core.Tensor;
 import core.layer.Layer;
-import core.layer.LayerParameters;
+import core.layer.Precision;
+import core.metrics.TrainingMetrics;
 
 import java.util.Arrays;
 
 public class ConvolutionalNetwork extends Network {
 
 	private final Layer[] layers;
-	private Layer[][] grads;
 	private final ConvolutionalNetworkParameters param;
+	// per-layer timings are only taken while a trainer has attached its metrics
+	private transient TrainingMetrics metrics;
+	// made by the first batched training pass, networks that are only evaluated one sample at a time never need one
+	private transient TrainingWorkspace workspace;
+	// layers whose activations training keeps, null for all of them
+	private transient int[] checkpoints;
 
 	public ConvolutionalNetwork(ConvolutionalNetworkParameters param) {
 		super(param);
@@ -22,105 +29,228 @@ public class ConvolutionalNetwork extends Network {
 	}
 
 	public void prepareGrads() {
-		this.grads = new Layer[this.layers.length][param.numOutputs];
-		for (int l = this.layers.length - 1; l >= 0; l--) {
-			for (int r = 0; r < this.param.numOutputs; r++) {
-				this.grads[l][r] = this.layers[l].zeroCopy();
-			}
+		for (Layer layer : this.layers) {
+			layer.setupGradient();
 		}
 	}
 
-	public void computeBackProp(double[] ans, double[] eval, int batchIndex) {
-		double[][][][] gradMult;
-		double[][][][] nextGradMult = new double[this.param.numOutputs][1][1][this.param.numOutputs];
+	public void backPropagate(double[] ans, double[] eval, int batchIndex) {
+		Tensor error = new Tensor(this.param.numOutputs, 1, 1);
+		for (int r = 0; r < this.param.numOutputs; r++) {
+			error.set(r, 0, 0, eval[r] - ans[r]);
+		}
+		for (int l = this.layers.length - 1; l >= 0; l--) {
+			error = this.layers[l].backward(error, this.layers[l].gradient, batchIndex, l > 0);
+		}
+	}
 
-		for (int i = 0; i < this.param.numOutputs; i++) {
-			nextGradMult[i][0][0][i] = eval[i] - ans[i];
+	public void backPropagateBatch(double[] ans, double[] eval, int count, int firstBatchIndex) {
+		Tensor error = this.getOutputError(firstBatchIndex, count);
+		for (int n = 0; n < count * this.param.numOutputs; n++) {
+			error.data[error.offset + n] = eval[n] - ans[n];
 		}
+		this.backPropagateBatch(error, firstBatchIndex, this.getGradients());
+	}
 
+	public void backPropagateBatch(Tensor error, int firstBatchIndex, Layer[] grads) {
+		// with checkpoints, each segment is run forward again before its backward
+		TrainingMetrics metrics = this.metrics;
+		TrainingWorkspace workspace = this.workspace();
+		MemoryPlan plan = workspace.plan;
+		double[] scratch = workspace.scratch();
+		int count = error.shape(3);
+		if (!error.isContiguous()) {
+			error = error.copy();
+		}
+		boolean regionHeld = true;
 		for (int l = this.layers.length - 1; l >= 0; l--) {
-			gradMult = nextGradMult;
-			Layer layer = this.layers[l];
-			LayerParameters layerParams = layer.layerParam;
-			int outputWidth = layerParams.outputSize[0];
-			int outputHeight = layerParams.outputSize[1];
-			int outputDepth = layerParams.outputSize[2];
-			int nextWidth = layerParams.inputSize[0];
-			int nextHeight = layerParams.inputSize[1];
-			int nextDepth = layerParams.inputSize[2];
-			nextGradMult = new double[nextWidth][nextHeight][nextDepth][this.param.numOutputs];
-			Layer outputGrad = layer.zeroCopy();
-			for (int k = 0; k < outputDepth; k++) {
-				for (int j = 0; j < outputHeight; j++) {
-					for (int i = 0; i < outputWidth; i++) {
-						int lowestNonzero = this.param.numOutputs;
-						for (int r = 0; r < this.param.numOutputs; r++) {
-							if (gradMult[i][j][k][r] != 0) {
-								lowestNonzero = r;
-								break;
-							}
-						}
-						if (lowestNonzero == this.param.numOutputs) {
-							continue;
-						}
-						layer.assignGradientInto(outputGrad, i, j, k, batchIndex);
-						double[][][] gradX = layer.getGradientX(i, j, k, batchIndex);
-						int[][] gradXRanges = layer.gradXNonzeroRanges;
-						for (int r = lowestNonzero; r < this.param.numOutputs; r++) {
-							if (gradMult[i][j][k][r] != 0) {
-								if (l > 0) {
-									for (int k1 = gradXRanges[2][0]; k1 <= gradXRanges[2][1]; k1++) {
-										for (int j1 = gradXRanges[1][0]; j1 <= gradXRanges[1][1]; j1++) {
-											for (int i1 = gradXRanges[0][0]; i1 <= gradXRanges[0][1]; i1++) {
-												nextGradMult[i1][j1][k1][r] += gradX[i1][j1][k1] * gradMult[i][j][k][r];
-											}
-										}
-									}
-								}
-								this.grads[l][r].combineScale(outputGrad, gradMult[i][j][k][r]);
-							}
-						}
-					}
+			long t0 = metrics != null ? System.nanoTime() : 0;
+			int start = plan.segmentStart[l];
+			if (start < l) {
+				if (!regionHeld) {
+					this.forward(workspace, start, l, firstBatchIndex, count, scratch);
 				}
+				regionHeld = false;
+			}
+			Tensor errorX = l > 0 ? workspace.error(l - 1, firstBatchIndex, count) : null;
+			this.layers[l].backwardBatch(error, errorX, grads[l], firstBatchIndex, scratch);
+			error = errorX;
+			if (metrics != null) {
+				metrics.recordBackward(l, System.nanoTime() - t0);
 			}
 		}
 	}
 
+	private synchronized TrainingWorkspace workspace() {
+		if (this.workspace == null) {
+			this.workspace = new TrainingWorkspace(this.getMemoryPlan());
+		}
+		return this.workspace;
+	}
+
+	public synchronized void setCheckpoints(int... layers) {
+		// trades memory for time: only these layers and the last keep their activations for backward, which runs the
+		// layers in between forward again; null keeps every layer. Only between steps, the workspace is planned anew
+		int[] checkpoints = layers == null ? null : layers.clone();
+		// planned here too so a layer that does not exist throws before anything changes
+		MemoryPlan.of(this.layers, this.param.batchSize, checkpoints);
+		this.checkpoints = checkpoints;
+		this.workspace = null;
+	}
+
+	public synchronized MemoryPlan getMemoryPlan() {
+		return this.workspace != null ? this.workspace.plan : MemoryPlan.of(this.layers, this.param.batchSize, this.checkpoints);
+	}
+
+	public Tensor getInput(int firstBatchIndex, int count) {
+		// workspace memory for the inputs of a batch pass, filling it in place saves evaluateBatch a copy
+		return this.workspace().input(firstBatchIndex, count);
+	}
+
+	public Tensor getOutputError(int firstBatchIndex, int count) {
+		// workspace memory for the output error that backPropagateBatch starts from
+		return this.workspace().outputError(firstBatchIndex, count);
+	}
+
+	public void setMetrics(TrainingMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public String[] getLayerNames() {
+		String[] names = new String[this.layers.length];
+		for (int l = 0; l < this.layers.length; l++) {
+			names[l] = l + "_" + this.layers[l].layerParam.layerType;
+		}
+		return names;
+	}
+
+	Layer[] getLayers() {
+		return this.layers;
+	}
+
+	public Layer[] getGradients() {
+		Layer[] gradients = new Layer[this.layers.length];
+		for (int l = 0; l < this.layers.length; l++) {
+			gradients[l] = this.layers[l].gradient;
+		}
+		return gradients;
+	}
+
+	public Layer[] newGradientShard() {
+		// separate gradient buffers so several threads can backpropagate different samples at once
+		Layer[] shard = new Layer[this.layers.length];
+		for (int l = 0; l < this.layers.length; l++) {
+			shard[l] = this.layers[l].zeroCopy();
+		}
+		return shard;
+	}
+
+	public void applyGradients(Layer[] grads, double trainingRate) {
+		// unlike applyGrads this keeps every batch slot's cached activations, so other threads can keep training
+		TrainingMetrics metrics = this.metrics;
+		for (int l = 0; l < this.layers.length; l++) {
+			long t0 = metrics != null ? System.nanoTime() : 0;
+			this.layers[l].combineScale(grads[l], trainingRate);
+			if (metrics != null) {
+				metrics.recordUpdate(l, System.nanoTime() - t0);
+			}
+		}
+	}
+
+	public void addGradients(Layer[] into, Layer[] from) {
+		for (int l = 0; l < this.layers.length; l++) {
+			into[l].combineScale(from[l], 1);
+		}
+	}
+
 	public void applyGrads(double trainingRate) {
-		for (int batchIndex = 0; batchIndex < this.grads.length; batchIndex++) {
-			for (int l = 0; l < this.layers.length; l++) {
-				this.layers[l].train(this.grads[l], trainingRate);
+		TrainingMetrics metrics = this.metrics;
+		for (int l = 0; l < this.layers.length; l++) {
+			long t0 = metrics != null ? System.nanoTime() : 0;
+			this.layers[l].train(this.layers[l].gradient, trainingRate);
+			if (metrics != null) {
+				metrics.recordUpdate(l, System.nanoTime() - t0);
 			}
 		}
 	}
 
 	@Override
 	public double[] evaluate(double[] x, int batchIndex) {
-		double[][][] result = convertToVol(x);
+		return this.evaluate(Tensor.wrap(x, this.layers[0].layerParam.inputSize), batchIndex).toArray();
+	}
+
+	@Override
+	public double[] evaluateBatch(double[] x, int count, int firstBatchIndex) {
+		int[] inputSize = this.layers[0].layerParam.inputSize;
+		return this.evaluateBatch(Tensor.wrap(x, 0, new int[]{inputSize[0], inputSize[1], inputSize[2], count}), firstBatchIndex).toArray();
+	}
+
+	public Tensor evaluateBatch(Tensor x, int firstBatchIndex) {
+		// every layer writes to the workspace, so the result is only good until these slots are evaluated again
+		int count = x.shape(3);
+		assert firstBatchIndex + count <= this.param.batchSize;
+		TrainingMetrics metrics = this.metrics;
+		TrainingWorkspace workspace = this.workspace();
+		double[] scratch = workspace.scratch();
+		Tensor input = workspace.input(firstBatchIndex, count);
+		if (x != input) {
+			input.copyFrom(x);
+		}
+		for (int l = 0; l < this.layers.length; l++) {
+			long t0 = metrics != null ? System.nanoTime() : 0;
+			this.forward(workspace, l, l + 1, firstBatchIndex, count, scratch);
+			if (metrics != null) {
+				metrics.recordForward(l, System.nanoTime() - t0);
+			}
+		}
+		return workspace.output(this.layers.length - 1, firstBatchIndex, count);
+	}
+
+	private void forward(TrainingWorkspace workspace, int from, int to, int firstBatchIndex, int count, double[] scratch) {
+		// layers from up to to, reading the workspace's outputs of the layer before
+		for (int l = from; l < to; l++) {
+			Tensor x = l == 0 ? workspace.input(firstBatchIndex, count) : workspace.output(l - 1, firstBatchIndex, count);
+			this.layers[l].evaluateBatch(x, workspace.output(l, firstBatchIndex, count), workspace.prime(l, firstBatchIndex, count), firstBatchIndex, scratch);
+		}
+	}
+
+	@Override
+	public double[] predict(double[] x) {
+		Tensor result = Tensor.wrap(x, this.layers[0].layerParam.inputSize);
 		for (Layer layer : this.layers) {
-			result = layer.evaluate(result, batchIndex);
+			result = layer.infer(result);
 		}
-		return convertToArr(result);
+		return result.toArray();
 	}
 
-	public double[][][] convertToVol(double[] x) {
+	@Override
+	public double[] predictBatch(double[] x, int count) {
 		int[] inputSize = this.layers[0].layerParam.inputSize;
-		double[][][] vol = new double[inputSize[0]][inputSize[1]][inputSize[2]];
-		for (int k = 0; k < inputSize[2]; k++) {
-			for (int j = 0; j < inputSize[1]; j++) {
-				for (int i = 0; i < inputSize[0]; i++) {
-					vol[i][j][k] = x[i + j * inputSize[0] + k * inputSize[1] * inputSize[0]];
-				}
-			}
+		Tensor result = Tensor.wrap(x, 0, new int[]{inputSize[0], inputSize[1], inputSize[2], count});
+		for (Layer layer : this.layers) {
+			result = layer.inferBatch(result);
 		}
-		return vol;
+		return result.toArray();
 	}
 
-	public static double[] convertToArr(double[][][] vol) {
-		double[] arr = new double[vol.length * vol[0].length * vol[0][0].length];
-		for (int i = 0; i < arr.length; i++) {
-			arr[i] = vol[i % vol.length][(i / vol.length) % vol[0].length][i / (vol.length * vol[0].length)];
+	@Override
+	public int getBatchSize() {
+		return this.param.batchSize;
+	}
+
+	public Precision getPrecision() {
+		return this.param.precision;
+	}
+
+	public int[] getInputSize() {
+		return this.layers[0].layerParam.inputSize.clone();
+	}
+
+	public Tensor evaluate(Tensor x, int batchIndex) {
+		Tensor result = x;
+		for (Layer layer : this.layers) {
+			result = layer.evaluate(result, batchIndex);
 		}
-		return arr;
+		return result;
 	}
 }
@@ -2,6 +2,7 @@ package core.network;
 
 import core.layer.Layer;
 import core.layer.LayerParameters;
+import core.layer.Precision;
 
 import java.util.List;
 
@@ -9,17 +10,27 @@ public class ConvolutionalNetworkParameters extends NetworkParameters {
 
 	Layer[] layers;
 	int batchSize;
+	Precision precision;
 
 	public ConvolutionalNetworkParameters(int[] inputSize, int numOutputs, List<LayerParameters> layerParams, int batchSize) {
+		this(inputSize, numOutputs, layerParams, batchSize, Precision.DOUBLE);
+	}
+
+	public ConvolutionalNetworkParameters(int[] inputSize, int numOutputs, List<LayerParameters> layerParams, int batchSize, Precision precision) {
+		this(inputSize, numOutputs, layerParams, batchSize, precision, true);
+	}
+
+	ConvolutionalNetworkParameters(int[] inputSize, int numOutputs, List<LayerParameters> layerParams, int batchSize, Precision precision, boolean randomize) {
 		super(inputSize[0] * inputSize[1] * inputSize[2], numOutputs);
 		this.layers = new Layer[layerParams.size()];
 
-		this.layers[0] = layerParams.get(0).makeLayer(inputSize);
+		this.layers[0] = layerParams.get(0).makeLayer(inputSize, precision, randomize);
 
 		for (int i = 1; i < this.layers.length; i++) {
-			this.layers[i] = layerParams.get(i).makeLayer(this.layers[i - 1].layerParam.outputSize);
+			this.layers[i] = layerParams.get(i).makeLayer(this.layers[i - 1].layerParam.outputSize, precision, randomize);
 		}
 
 		this.batchSize = batchSize;
+		this.precision = precision;
 	}
 }
@@ -0,0 +1,196 @@
+package core.network;
+
+import core.Tensor;
+import core.layer.Layer;
+
+public class InferenceNetwork extends Network {
+
+	// frozen copies of the trained layers, nothing here is written after construction
+	private final Layer[] layers;
+	private final int[] inputSize;
+	private final int maxBatchSize;
+	private final InferencePrecision precision;
+	private final ThreadLocal<Workspace> workspaces;
+
+	public InferenceNetwork(ConvolutionalNetwork net, int maxBatchSize) {
+		this(net, maxBatchSize, InferencePrecision.DOUBLE);
+	}
+
+	public InferenceNetwork(ConvolutionalNetwork net, int maxBatchSize, InferencePrecision precision) {
+		this(net, maxBatchSize, precision, null, 0);
+	}
+
+	public InferenceNetwork(ConvolutionalNetwork net, int maxBatchSize, InferencePrecision precision, double[] calibration, int calibrationCount) {
+		// calibration holds calibrationCount inputs like the ones the network will be given, only INT8 reads them
+		super(((Network) net).param);
+		if (precision == InferencePrecision.INT8 && (calibration == null || calibrationCount == 0)) {
+			throw new IllegalArgumentException("INT8 needs calibration inputs to fix its scales");
+		}
+		Layer[] trained = net.getLayers();
+		this.layers = new Layer[trained.length];
+		for (int l = 0; l < trained.length; l++) {
+			this.layers[l] = trained[l].zeroCopy();
+			this.layers[l].zero();
+			this.layers[l].combineScale(trained[l], 1);
+		}
+		this.inputSize = net.getInputSize();
+		this.maxBatchSize = maxBatchSize;
+		this.precision = precision;
+		double[] inputRanges = precision == InferencePrecision.INT8 ? this.inputRanges(calibration, calibrationCount) : null;
+		for (int l = 0; l < this.layers.length; l++) {
+			switch (precision) {
+				case DOUBLE -> {}
+				case FLOAT, FLOAT_DOUBLE_SUMS -> this.layers[l].freezeFloat();
+				case INT8 -> this.layers[l].freezeInt8(inputRanges[l]);
+			}
+		}
+		this.workspaces = ThreadLocal.withInitial(Workspace::new);
+	}
+
+	private double[] inputRanges(double[] calibration, int count) {
+		// the largest magnitude reaching each layer over the calibration inputs, run through the double layers
+		double[] ranges = new double[this.layers.length];
+		int numInputs = this.param.numInputs;
+		for (int first = 0; first < count; first += this.maxBatchSize) {
+			int chunk = Math.min(this.maxBatchSize, count - first);
+			Tensor x = Tensor.wrap(calibration, first * numInputs, new int[]{this.inputSize[0], this.inputSize[1], this.inputSize[2], chunk});
+			for (int l = 0; l < this.layers.length; l++) {
+				for (int n = x.offset; n < x.offset + x.length(); n++) {
+					ranges[l] = Math.max(ranges[l], Math.abs(x.data[n]));
+				}
+				x = this.layers[l].inferBatch(x);
+			}
+		}
+		return ranges;
+	}
+
+	private class Workspace {
+
+		// per thread, activations for each layer and scratch shared by the layers, at the network's precision
+		private final double[][] activations = new double[layers.length][];
+		private final double[] scratch;
+		private final float[][] floatActivations = new float[layers.length][];
+		private final float[] floatScratch;
+		private final float[] floatInput;
+		private final byte[] int8Scratch;
+		private final int[] sums;
+
+		private Workspace() {
+			boolean isFloat = precision != InferencePrecision.DOUBLE;
+			boolean isInt8 = precision == InferencePrecision.INT8;
+			int scratchSize = 0;
+			int largestOutput = 0;
+			for (int l = 0; l < layers.length; l++) {
+				int[] outputSize = layers[l].layerParam.outputSize;
+				int length = outputSize[0] * outputSize[1] * outputSize[2] * maxBatchSize;
+				largestOutput = Math.max(largestOutput, length);
+				if (isInt8) {
+					this.floatActivations[l] = new float[length];
+					scratchSize = Math.max(scratchSize, layers[l].getInt8ScratchSize(maxBatchSize));
+				} else if (isFloat) {
+					this.floatActivations[l] = new float[length];
+					scratchSize = Math.max(scratchSize, layers[l].getFloatScratchSize(maxBatchSize));
+				} else {
+					this.activations[l] = new double[length];
+					scratchSize = Math.max(scratchSize, layers[l].getInferenceScratchSize(maxBatchSize));
+				}
+			}
+			this.scratch = isFloat ? null : new double[scratchSize];
+			this.floatScratch = isFloat && !isInt8 ? new float[scratchSize] : null;
+			this.floatInput = isFloat ? new float[param.numInputs * maxBatchSize] : null;
+			this.int8Scratch = isInt8 ? new byte[scratchSize] : null;
+			this.sums = isInt8 ? new int[largestOutput] : null;
+		}
+	}
+
+	@Override
+	public double[] predict(double[] x) {
+		return this.predictBatch(x, 1);
+	}
+
+	@Override
+	public double[] predictBatch(double[] x, int count) {
+		double[] y = new double[count * this.param.numOutputs];
+		this.predictBatch(x, count, y);
+		return y;
+	}
+
+	public void predictBatch(double[] x, int count, double[] y) {
+		// larger batches run maxBatchSize samples at a time through the preallocated buffers
+		Workspace workspace = this.workspaces.get();
+		int numInputs = this.param.numInputs;
+		int numOutputs = this.param.numOutputs;
+		if (this.precision != InferencePrecision.DOUBLE) {
+			this.predictBatchFloat(x, count, y, workspace);
+			return;
+		}
+		for (int first = 0; first < count; first += this.maxBatchSize) {
+			int chunk = Math.min(this.maxBatchSize, count - first);
+			Tensor result = Tensor.wrap(x, first * numInputs, new int[]{this.inputSize[0], this.inputSize[1], this.inputSize[2], chunk});
+			for (int l = 0; l < this.layers.length; l++) {
+				int[] outputSize = this.layers[l].layerParam.outputSize;
+				Tensor out = Tensor.wrap(workspace.activations[l], 0, new int[]{outputSize[0], outputSize[1], outputSize[2], chunk});
+				this.layers[l].inferBatch(result, out, workspace.scratch);
+				result = out;
+			}
+			System.arraycopy(result.data, 0, y, first * numOutputs, chunk * numOutputs);
+		}
+	}
+
+	private void predictBatchFloat(double[] x, int count, double[] y, Workspace workspace) {
+		// rounded to float at the input and widened back at the output, everything between stays float, or for INT8
+		// is float between the layers
+		boolean doubleSums = this.precision == InferencePrecision.FLOAT_DOUBLE_SUMS;
+		int numInputs = this.param.numInputs;
+		int numOutputs = this.param.numOutputs;
+		for (int first = 0; first < count; first += this.maxBatchSize) {
+			int chunk = Math.min(this.maxBatchSize, count - first);
+			for (int i = 0; i < chunk * numInputs; i++) {
+				workspace.floatInput[i] = (float) x[first * numInputs + i];
+			}
+			float[] result = workspace.floatInput;
+			for (int l = 0; l < this.layers.length; l++) {
+				if (this.precision == InferencePrecision.INT8) {
+					this.layers[l].inferBatch(result, workspace.floatActivations[l], chunk, workspace.int8Scratch, workspace.sums);
+				} else {
+					this.layers[l].inferBatch(result, workspace.floatActivations[l], chunk, workspace.floatScratch, doubleSums);
+				}
+				result = workspace.floatActivations[l];
+			}
+			for (int i = 0; i < chunk * numOutputs; i++) {
+				y[first * numOutputs + i] = result[i];
+			}
+		}
+	}
+
+	@Override
+	public double[] evaluate(double[] x, int batchIndex) {
+		return this.predict(x);
+	}
+
+	@Override
+	public double[] evaluateBatch(double[] x, int count, int firstBatchIndex) {
+		return this.predictBatch(x, count);
+	}
+
+	@Override
+	public int getBatchSize() {
+		return this.maxBatchSize;
+	}
+
+	public InferencePrecision getPrecision() {
+		return this.precision;
+	}
+
+	public long getWeightBytes() {
+		long bytes = 0;
+		for (Layer layer : this.layers) {
+			bytes += layer.getFrozenWeightBytes();
+		}
+		return bytes;
+	}
+
+	public int[] getInputSize() {
+		return this.inputSize.clone();
+	}
+}
@@ -0,0 +1,6 @@
+package core.network;
+
+public enum InferencePrecision {
+	// how an InferenceNetwork stores weights and activations, training always runs in double
+	DOUBLE, FLOAT, FLOAT_DOUBLE_SUMS, INT8
+}
@@ -0,0 +1,212 @@
+package core.network;
+
+import core.layer.Layer;
+import core.layer.LayerType;
+import core.layer.PoolType;
+
+import java.util.Arrays;
+
+public final class MemoryPlan {
+
+	// where a training step's activations and errors live for one batch size
+	private static final int doubleBytes = Double.BYTES;
+
+	private final String[] layerNames;
+	private final int[][] outputSizes;
+	final int batchSize;
+	final boolean[] kept;
+	// per layer, the first layer of the segment that backward runs forward again to refill it
+	final int[] segmentStart;
+	// the input, then output, prime and error of each layer, placed per slot so concurrent workers never overlap
+	final int[][] shapes;
+	final int[] offsets;
+	final int[] slotLengths;
+	final int[] slotOffsets;
+	final int arenaLength;
+	final int scratchLength;
+	private final int fullArenaLength;
+	private final int regionLength;
+	private final int errorLength;
+	private final long[] argmaxBytes;
+
+	private MemoryPlan(Layer[] layers, int batchSize, int[] checkpoints) {
+		int numLayers = layers.length;
+		this.batchSize = batchSize;
+		this.layerNames = new String[numLayers];
+		this.outputSizes = new int[numLayers][];
+		this.kept = new boolean[numLayers];
+		this.segmentStart = new int[numLayers];
+		this.shapes = new int[1 + 3 * numLayers][];
+		this.offsets = new int[this.shapes.length];
+		this.slotLengths = new int[this.shapes.length];
+		this.slotOffsets = new int[this.shapes.length];
+		this.argmaxBytes = new long[numLayers];
+		// null keeps every layer, the last layer is always kept since its outputs are the network's
+		for (int l = 0; l < numLayers; l++) {
+			this.kept[l] = checkpoints == null || l == numLayers - 1;
+		}
+		if (checkpoints != null) {
+			for (int l : checkpoints) {
+				if (l < 0 || l >= numLayers) {
+					throw new IllegalArgumentException("No layer " + l + " to checkpoint in " + numLayers);
+				}
+				this.kept[l] = true;
+			}
+		}
+
+		int scratch = 0;
+		int largestOutput = 0;
+		this.shapes[0] = batchShape(layers[0].layerParam.inputSize, batchSize);
+		for (int l = 0; l < numLayers; l++) {
+			int[] outputSize = layers[l].layerParam.outputSize;
+			this.layerNames[l] = l + "_" + layers[l].layerParam.layerType;
+			this.outputSizes[l] = outputSize;
+			this.shapes[1 + 3 * l] = batchShape(outputSize, batchSize);
+			this.shapes[2 + 3 * l] = layers[l].recordsPrime() ? this.shapes[1 + 3 * l] : null;
+			this.shapes[3 + 3 * l] = this.shapes[1 + 3 * l];
+			scratch = Math.max(scratch, layers[l].getTrainingScratchSize(batchSize));
+			largestOutput = Math.max(largestOutput, sampleLength(this.shapes[1 + 3 * l]));
+			if (layers[l].layerParam.layerType == LayerType.POOL && layers[l].layerParam.poolType == PoolType.MAX) {
+				this.argmaxBytes[l] = (long) Integer.BYTES * batchSize * sampleLength(this.shapes[1 + 3 * l]);
+			}
+		}
+		this.scratchLength = scratch;
+		this.errorLength = batchSize * largestOutput;
+
+		// the input and the kept layers first, then the region the segments share, then the two error blocks
+		this.slotLengths[0] = sampleLength(this.shapes[0]);
+		int offset = batchSize * this.slotLengths[0];
+		int full = offset;
+		for (int l = 0; l < numLayers; l++) {
+			full += batchSize * this.activationLength(l);
+			if (this.kept[l]) {
+				this.place(1 + 3 * l, offset, sampleLength(this.shapes[1 + 3 * l]), 0);
+				this.place(2 + 3 * l, offset + batchSize * this.slotLengths[1 + 3 * l], sampleLength(this.shapes[2 + 3 * l]), 0);
+				offset += batchSize * this.activationLength(l);
+			}
+		}
+		// per slot, the segment's layers one after another
+		int[] used = new int[numLayers];
+		int region = 0;
+		int segment = 0;
+		for (int l = 0; l < numLayers; l++) {
+			this.segmentStart[l] = this.kept[l] ? segment : l;
+			if (this.kept[l]) {
+				segment = l + 1;
+				continue;
+			}
+			used[l] = l == segment ? 0 : used[l - 1] + this.activationLength(l - 1);
+			region = Math.max(region, used[l] + this.activationLength(l));
+		}
+		for (int l = 0; l < numLayers; l++) {
+			if (!this.kept[l]) {
+				this.place(1 + 3 * l, offset, region, used[l]);
+				this.place(2 + 3 * l, offset, region, used[l] + sampleLength(this.shapes[1 + 3 * l]));
+			}
+		}
+		this.regionLength = batchSize * region;
+		offset += this.regionLength;
+		for (int l = 0; l < numLayers; l++) {
+			this.place(3 + 3 * l, offset + ((numLayers - 1 - l) % 2) * this.errorLength, largestOutput, 0);
+		}
+		this.arenaLength = offset + 2 * this.errorLength;
+		this.fullArenaLength = full + 2 * this.errorLength;
+	}
+
+	private void place(int buffer, int offset, int slotLength, int slotOffset) {
+		this.offsets[buffer] = offset;
+		this.slotLengths[buffer] = slotLength;
+		this.slotOffsets[buffer] = slotOffset;
+	}
+
+	int offset(int buffer, int first, int count) {
+		return this.offsets[buffer] + first * this.slotLengths[buffer] + count * this.slotOffsets[buffer];
+	}
+
+	public static MemoryPlan of(ConvolutionalNetworkParameters param, int batchSize, int... checkpoints) {
+		// checkpoints are the layers whose activations are kept, null for all of them
+		return new MemoryPlan(param.layers, batchSize, checkpoints);
+	}
+
+	static MemoryPlan of(Layer[] layers, int batchSize, int[] checkpoints) {
+		return new MemoryPlan(layers, batchSize, checkpoints);
+	}
+
+	private static int[] batchShape(int[] size, int batchSize) {
+		return new int[]{size[0], size[1], size[2], batchSize};
+	}
+
+	private static int sampleLength(int[] shape) {
+		return shape == null ? 0 : shape[0] * shape[1] * shape[2];
+	}
+
+	private int activationLength(int l) {
+		// per slot
+		return sampleLength(this.shapes[1 + 3 * l]) + sampleLength(this.shapes[2 + 3 * l]);
+	}
+
+	public boolean isKept(int layer) {
+		return this.kept[layer];
+	}
+
+	public long getActivationBytes(int layer) {
+		// outputs, activation derivatives and max pool argmax of the whole batch, wherever they are kept
+		return doubleBytes * (long) this.batchSize * this.activationLength(layer) + this.argmaxBytes[layer];
+	}
+
+	public long getArenaBytes() {
+		return doubleBytes * (long) this.arenaLength;
+	}
+
+	public long getFullArenaBytes() {
+		// the arena if every layer were kept
+		return doubleBytes * (long) this.fullArenaLength;
+	}
+
+	public long getArgmaxBytes() {
+		return Arrays.stream(this.argmaxBytes).sum();
+	}
+
+	public long getScratchBytes() {
+		// per training thread
+		return doubleBytes * (long) this.scratchLength;
+	}
+
+	public long getTotalBytes() {
+		return this.getArenaBytes() + this.getArgmaxBytes();
+	}
+
+	public int getRecomputedLayers() {
+		// layers each backward pass runs forward again, the last segment is still in the region after the forward pass
+		int recomputed = 0;
+		boolean held = true;
+		for (int l = this.kept.length - 1; l >= 0; l--) {
+			if (this.segmentStart[l] < l) {
+				recomputed += held ? 0 : l - this.segmentStart[l];
+				held = false;
+			}
+		}
+		return recomputed;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append(String.format("%-10s %-12s %-5s %12s%n", "layer", "output", "kept", "activations"));
+		for (int l = 0; l < this.layerNames.length; l++) {
+			int[] size = this.outputSizes[l];
+			s.append(String.format("%-10s %-12s %-5s %12s%n", this.layerNames[l], size[0] + "x" + size[1] + "x" + size[2],
+					this.kept[l] ? "yes" : "no", kilobytes(this.getActivationBytes(l))));
+		}
+		s.append(String.format("input %s, shared segment region %s, errors 2 x %s, scratch %s per thread%n",
+				kilobytes(doubleBytes * (long) this.batchSize * this.slotLengths[0]), kilobytes(doubleBytes * (long) this.regionLength),
+				kilobytes(doubleBytes * (long) this.errorLength), kilobytes(this.getScratchBytes())));
+		s.append(String.format("batch %d: %s of activations, %s keeping every layer, %d layers recomputed per step",
+				this.batchSize, kilobytes(this.getTotalBytes()), kilobytes(this.getFullArenaBytes() + this.getArgmaxBytes()), this.getRecomputedLayers()));
+		return s.toString();
+	}
+
+	private static String kilobytes(long bytes) {
+		return (bytes + 1023) / 1024 + " KB";
+	}
+}
@@ -0,0 +1,164 @@
+package core.network;
+
+import core.ActFunc;
+import core.layer.ConvEngine;
+import core.layer.ConvMode;
+import core.layer.ConvolutionalLayerParameters;
+import core.layer.FullLayerParameters;
+import core.layer.Layer;
+import core.layer.LayerParameters;
+import core.layer.LayerType;
+import core.layer.PoolLayerParameters;
+import core.layer.PoolType;
+import core.layer.Precision;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ModelFile {
+
+	// little-endian layout:
+	//   header      magic, version, input width, height, depth, numOutputs, batchSize, numLayers, precision
+	//   per layer   type, seven topology values (see LayerParameters), numWeights, reserved
+	//   weights     the doubles of every layer in order, starting on an 8 byte boundary
+	// version 1 files, from before convolution modes and biases, have five topology values and are still read.
+	// version 1 and 2 files have no precision and load as double
+	// read copies the mapped weights into the layers' own arrays on the heap, so processes loading the same file
+	// each hold their own copy
+	public static final int magic = 0x4D4E4E47;
+	public static final int version = 3;
+
+	private static final int headerInts = 9;
+	private static final int topologyInts = 7;
+
+	private ModelFile() {}
+
+	public static void write(ConvolutionalNetwork net, Path path) throws IOException {
+		Layer[] layers = net.getLayers();
+		int headerSize = 4 * (headerInts(version) + layerInts(version) * layers.length);
+		long weightsOffset = (headerSize + 7) / 8 * 8;
+		long numWeights = 0;
+		for (Layer layer : layers) {
+			numWeights += layer.getNumWeights();
+		}
+		long size = weightsOffset + 8 * numWeights;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("A model of " + numWeights + " weights needs " + size + " bytes, over the 2 GB a model file can hold");
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			IntBuffer header = buffer.asIntBuffer();
+			int[] inputSize = net.getInputSize();
+			header.put(new int[]{magic, version, inputSize[0], inputSize[1], inputSize[2],
+					((Network) net).param.numOutputs, net.getBatchSize(), layers.length, net.getPrecision().ordinal()});
+			for (Layer layer : layers) {
+				header.put(topology(layer.layerParam));
+				header.put(layer.getNumWeights());
+				header.put(0);
+			}
+
+			DoubleBuffer weights = buffer.position((int) weightsOffset).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			for (Layer layer : layers) {
+				layer.saveWeights(weights);
+			}
+			buffer.force();
+		}
+	}
+
+	public static ConvolutionalNetwork read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Model file " + path + " is " + channel.size() + " bytes, over the 2 GB a model file can hold");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (channel.size() < 4 * headerInts(1)) {
+				throw new IOException("Model file " + path + " is too short");
+			}
+
+			IntBuffer header = buffer.asIntBuffer();
+			int foundMagic = header.get();
+			if (foundMagic != magic) {
+				throw new IOException("Expected magic header of 0x" + Integer.toHexString(magic)
+						+ " for a model, but found 0x" + Integer.toHexString(foundMagic));
+			}
+			int foundVersion = header.get();
+			if (foundVersion < 1 || foundVersion > version) {
+				throw new IOException("Unsupported model version " + foundVersion + ", expected " + version);
+			}
+			int[] inputSize = new int[]{header.get(), header.get(), header.get()};
+			int numOutputs = header.get();
+			int batchSize = header.get();
+			int numLayers = header.get();
+			Precision precision = foundVersion < 3 ? Precision.DOUBLE : Precision.values()[header.get()];
+
+			List<LayerParameters> layerParams = new ArrayList<>();
+			int[] numWeights = new int[numLayers];
+			for (int l = 0; l < numLayers; l++) {
+				int[] topology = new int[1 + topologyInts];
+				header.get(topology, 0, layerInts(foundVersion) - 2);
+				layerParams.add(layerParameters(topology));
+				numWeights[l] = header.get();
+				header.get();
+			}
+
+			// every weight is loaded below, so none are drawn at random first
+			ConvolutionalNetwork net = new ConvolutionalNetwork(
+					new ConvolutionalNetworkParameters(inputSize, numOutputs, layerParams, batchSize, precision, false));
+
+			// copied out of the mapped file into the layers
+			int headerSize = 4 * (headerInts(foundVersion) + layerInts(foundVersion) * numLayers);
+			DoubleBuffer weights = buffer.position((headerSize + 7) / 8 * 8).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			Layer[] layers = net.getLayers();
+			for (int l = 0; l < numLayers; l++) {
+				if (layers[l].getNumWeights() != numWeights[l]) {
+					throw new IOException("Layer " + l + " of " + path + " has " + numWeights[l]
+							+ " weights but its topology needs " + layers[l].getNumWeights());
+				}
+				layers[l].loadWeights(weights);
+			}
+			return net;
+		} catch (RuntimeException e) {
+			throw new IOException("Model file " + path + " is corrupt", e);
+		}
+	}
+
+	private static int headerInts(int fileVersion) {
+		return fileVersion < 3 ? 8 : headerInts;
+	}
+
+	private static int layerInts(int fileVersion) {
+		// type, topology, numWeights and reserved
+		return 1 + (fileVersion == 1 ? 5 : topologyInts) + 2;
+	}
+
+	private static int[] topology(LayerParameters p) {
+		return switch (p.layerType) {
+			case FULL -> new int[]{LayerType.FULL.ordinal(), p.outputSize[0], p.actFunc.ordinal(), 0, 0, 0, 0, 0};
+			case POOL -> new int[]{LayerType.POOL.ordinal(), p.poolSize, p.stride, p.poolType.ordinal(), 0, 0, 0, 0};
+			case CONV -> new int[]{LayerType.CONV.ordinal(), p.convRadius, p.numConvs, p.pad, p.actFunc.ordinal(), p.convEngine.ordinal(),
+					p.isMultiChannel() ? ConvMode.MULTI_CHANNEL.ordinal() : ConvMode.PER_CHANNEL.ordinal(), p.bias ? 1 : 0};
+		};
+	}
+
+	private static LayerParameters layerParameters(int[] t) {
+		return switch (LayerType.values()[t[0]]) {
+			case FULL -> new FullLayerParameters(t[1], ActFunc.values()[t[2]]);
+			case POOL -> new PoolLayerParameters(t[1], t[2], PoolType.values()[t[3]]);
+			case CONV -> new ConvolutionalLayerParameters(t[1], t[2], t[3], ActFunc.values()[t[4]], ConvEngine.values()[t[5]],
+					ConvMode.values()[t[6]], t[7] == 1);
+		};
+	}
+}
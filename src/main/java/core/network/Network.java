@@ -1,6 +1,8 @@
 package core.network;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Paths;
 
 public abstract class Network implements Serializable {
 
@@ -12,30 +14,32 @@ public abstract class Network implements Serializable {
 
 	public abstract double[] evaluate(double[] x, int batchIndex);
 
+	// x holds count inputs back to back, the result holds their outputs back to back
+	public abstract double[] evaluateBatch(double[] x, int count, int firstBatchIndex);
+
+	public abstract int getBatchSize();
+
+	// inference only, these keep no state between calls and can run on many threads at once
+	public abstract double[] predict(double[] x);
+
+	public abstract double[] predictBatch(double[] x, int count);
+
 	public void serialize(String path) {
 		try {
-			FileOutputStream fileOut = new FileOutputStream(path + "/network.ser");
-			ObjectOutputStream out = new ObjectOutputStream(fileOut);
-			out.writeObject(this);
-			out.close();
-			fileOut.close();
+			if (this instanceof ConvolutionalNetwork) {
+				ModelFile.write((ConvolutionalNetwork) this, Paths.get(path, "network.bin"));
+			}
 		} catch (IOException i) {
 			i.printStackTrace();
 		}
 	}
 
 	public static Network deserialize(String path) {
-		Network net;
 		try {
-			FileInputStream fileIn = new FileInputStream(path + "/network.ser");
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-			net = (Network) in.readObject();
-			in.close();
-			fileIn.close();
-		} catch (IOException | ClassNotFoundException e) {
+			return ModelFile.read(Paths.get(path, "network.bin"));
+		} catch (IOException e) {
 			e.printStackTrace();
 			return null;
 		}
-		return net;
 	}
-}
\ No newline at end of file
+}
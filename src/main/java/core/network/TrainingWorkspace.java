@@ -0,0 +1,70 @@
+package core.network;
+
+import core.Tensor;
+
+final class TrainingWorkspace {
+
+	// the memory a MemoryPlan lays out, allocated once so the training passes allocate nothing
+	final MemoryPlan plan;
+	private final double[] arena;
+	private final int numLayers;
+	// the input, then output, prime and error of each layer over the whole batch, null where a layer has no prime
+	private final Tensor[] buffers;
+	// views of a run of slots by buffer and first slot, made once since trainers split every batch the same way
+	private final Tensor[][] ranges;
+	private final ThreadLocal<double[]> scratch;
+
+	TrainingWorkspace(MemoryPlan plan) {
+		this.plan = plan;
+		this.numLayers = plan.kept.length;
+		this.arena = new double[plan.arenaLength];
+		this.buffers = new Tensor[plan.shapes.length];
+		for (int b = 0; b < plan.shapes.length; b++) {
+			if (plan.shapes[b] != null) {
+				this.buffers[b] = Tensor.wrap(this.arena, plan.offset(b, 0, plan.batchSize), plan.shapes[b]);
+			}
+		}
+		this.ranges = new Tensor[this.buffers.length][plan.batchSize];
+		this.scratch = ThreadLocal.withInitial(() -> new double[plan.scratchLength]);
+	}
+
+	Tensor input(int first, int count) {
+		return this.range(0, first, count);
+	}
+
+	Tensor output(int layer, int first, int count) {
+		return this.range(1 + 3 * layer, first, count);
+	}
+
+	Tensor prime(int layer, int first, int count) {
+		return this.range(2 + 3 * layer, first, count);
+	}
+
+	Tensor error(int layer, int first, int count) {
+		// the error with respect to the outputs of layer, which is the input error of layer + 1
+		return this.range(3 + 3 * layer, first, count);
+	}
+
+	Tensor outputError(int first, int count) {
+		return this.error(this.numLayers - 1, first, count);
+	}
+
+	double[] scratch() {
+		return this.scratch.get();
+	}
+
+	private Tensor range(int buffer, int first, int count) {
+		Tensor whole = this.buffers[buffer];
+		if (whole == null) {
+			return null;
+		}
+		Tensor view = this.ranges[buffer][first];
+		if (view == null || view.shape(3) != count) {
+			int[] shape = whole.getShape();
+			shape[3] = count;
+			view = Tensor.wrap(this.arena, this.plan.offset(buffer, first, count), shape);
+			this.ranges[buffer][first] = view;
+		}
+		return view;
+	}
+}
@@ -0,0 +1,112 @@
+package core.serving;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import core.Utility;
+import core.network.Network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class InferenceServer implements AutoCloseable {
+
+	// POST /predict takes the inputs as comma or whitespace separated numbers, GET /stats reports latency and batching
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final MicroBatcher batcher;
+	private final ServerStats stats;
+
+	public InferenceServer(Network net, int port, int maxBatchSize, long maxDelayMicros, int handlerThreads) throws IOException {
+		// each handler blocks until its batch has run, so fewer handlers than the batch size could never fill one
+		if (handlerThreads < maxBatchSize) {
+			throw new IllegalArgumentException("Need at least " + maxBatchSize + " handler threads to fill a batch, not " + handlerThreads);
+		}
+		this.stats = new ServerStats(maxBatchSize);
+		this.batcher = new MicroBatcher(net, maxBatchSize, maxDelayMicros, this.stats);
+		this.handlers = Executors.newFixedThreadPool(handlerThreads, r -> {
+			Thread thread = new Thread(r, "inference-handler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.setExecutor(this.handlers);
+		this.server.createContext("/predict", this::predict);
+		this.server.createContext("/stats", this::stats);
+		this.server.start();
+	}
+
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	public ServerStats getStats() {
+		return this.stats;
+	}
+
+	private void predict(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			this.respond(exchange, 405, error("use POST"));
+			return;
+		}
+		double[] input;
+		try {
+			String[] values = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim().split("[,\\s]+");
+			input = new double[values.length];
+			for (int i = 0; i < values.length; i++) {
+				input[i] = Double.parseDouble(values[i]);
+			}
+			double[] output = this.batcher.submit(input).get();
+			StringBuilder json = new StringBuilder("{\"output\":[");
+			for (int i = 0; i < output.length; i++) {
+				json.append(i > 0 ? "," : "").append(output[i]);
+			}
+			json.append("],\"guess\":").append(Utility.maxIndex(output)).append('}');
+			this.respond(exchange, 200, json.toString());
+		} catch (IllegalArgumentException e) {
+			this.respond(exchange, 400, error(e.getMessage()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.respond(exchange, 503, error("interrupted"));
+		} catch (CancellationException e) {
+			this.respond(exchange, 503, error("cancelled"));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RejectedExecutionException) {
+				this.respond(exchange, 503, error(e.getCause().getMessage()));
+			} else {
+				this.respond(exchange, 500, error(String.valueOf(e.getCause())));
+			}
+		}
+	}
+
+	private static String error(String message) {
+		return "{\"error\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+	}
+
+	private void stats(HttpExchange exchange) throws IOException {
+		this.respond(exchange, 200, this.stats.toJson());
+	}
+
+	private void respond(HttpExchange exchange, int code, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.batcher.close();
+		this.handlers.shutdown();
+	}
+}
@@ -0,0 +1,133 @@
+package core.serving;
+
+import core.network.Network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MicroBatcher implements AutoCloseable {
+
+	// concurrent requests wait at most maxDelayMicros after the first one arrives, then run through the network together
+	private final Network net;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final ServerStats stats;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	private static class Request {
+		private final double[] input;
+		private final long arrival;
+		private final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+		private Request(double[] input) {
+			this.input = input;
+			this.arrival = System.nanoTime();
+		}
+	}
+
+	public MicroBatcher(Network net, int maxBatchSize, long maxDelayMicros, ServerStats stats) {
+		this.net = net;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayNanos = maxDelayMicros * 1000;
+		this.stats = stats;
+		this.thread = new Thread(this::run, "micro-batcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public CompletableFuture<double[]> submit(double[] input) {
+		if (input.length != this.net.param.numInputs) {
+			throw new IllegalArgumentException("Expected " + this.net.param.numInputs + " inputs, but found " + input.length);
+		}
+		Request request = new Request(input);
+		if (!this.running) {
+			request.result.completeExceptionally(closed());
+			return request.result;
+		}
+		this.queue.add(request);
+		// close may have drained the queue between the check and the add
+		if (!this.running && this.queue.remove(request)) {
+			request.result.completeExceptionally(closed());
+		}
+		return request.result;
+	}
+
+	private static RejectedExecutionException closed() {
+		return new RejectedExecutionException("The batcher is closed");
+	}
+
+	private void run() {
+		List<Request> batch = new ArrayList<>(this.maxBatchSize);
+		try {
+			this.batchLoop(batch);
+		} finally {
+			// whatever ended the loop, nothing waits forever
+			this.running = false;
+			for (Request request : batch) {
+				request.result.completeExceptionally(closed());
+			}
+			for (Request request = this.queue.poll(); request != null; request = this.queue.poll()) {
+				request.result.completeExceptionally(closed());
+			}
+		}
+	}
+
+	private void batchLoop(List<Request> batch) {
+		int numInputs = this.net.param.numInputs;
+		int numOutputs = this.net.param.numOutputs;
+		double[] x = new double[this.maxBatchSize * numInputs];
+		while (this.running) {
+			try {
+				Request first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = first.arrival + this.maxDelayNanos;
+				while (batch.size() < this.maxBatchSize) {
+					long wait = deadline - System.nanoTime();
+					Request next = wait > 0 ? this.queue.poll(wait, TimeUnit.NANOSECONDS) : this.queue.poll();
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			for (int r = 0; r < batch.size(); r++) {
+				System.arraycopy(batch.get(r).input, 0, x, r * numInputs, numInputs);
+			}
+			try {
+				double[] y = this.net.predictBatch(x, batch.size());
+				long now = System.nanoTime();
+				this.stats.recordBatch(batch.size());
+				for (int r = 0; r < batch.size(); r++) {
+					double[] output = new double[numOutputs];
+					System.arraycopy(y, r * numOutputs, output, 0, numOutputs);
+					this.stats.recordLatency(now - batch.get(r).arrival);
+					batch.get(r).result.complete(output);
+				}
+			} catch (Throwable e) {
+				for (Request request : batch) {
+					request.result.completeExceptionally(e);
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		this.running = false;
+		this.thread.interrupt();
+	}
+}
@@ -0,0 +1,70 @@
+package core.serving;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ServerStats {
+
+	// latencies of the most recent requests in a ring, percentiles are taken over them on demand
+	private static final int window = 1 << 14;
+
+	private final long[] latencies = new long[window];
+	private long requests = 0;
+	private final AtomicLongArray batchSizes;
+
+	public ServerStats(int maxBatchSize) {
+		this.batchSizes = new AtomicLongArray(maxBatchSize + 1);
+	}
+
+	public synchronized void recordLatency(long nanos) {
+		this.latencies[(int) (this.requests % window)] = nanos;
+		this.requests++;
+	}
+
+	public void recordBatch(int size) {
+		this.batchSizes.incrementAndGet(size);
+	}
+
+	public synchronized long getRequests() {
+		return this.requests;
+	}
+
+	// latency in microseconds at quantile q of the recent requests
+	public double latencyMicros(double q) {
+		long[] recent;
+		synchronized (this) {
+			recent = Arrays.copyOf(this.latencies, (int) Math.min(this.requests, window));
+		}
+		if (recent.length == 0) {
+			return 0;
+		}
+		Arrays.sort(recent);
+		return recent[(int) Math.min(recent.length - 1, Math.floor(q * recent.length))] / 1000.0;
+	}
+
+	public long[] getBatchSizeHistogram() {
+		long[] histogram = new long[this.batchSizes.length()];
+		for (int s = 0; s < histogram.length; s++) {
+			histogram[s] = this.batchSizes.get(s);
+		}
+		return histogram;
+	}
+
+	public String toJson() {
+		long[] histogram = this.getBatchSizeHistogram();
+		long batches = 0;
+		long samples = 0;
+		StringBuilder sizes = new StringBuilder();
+		for (int s = 1; s < histogram.length; s++) {
+			batches += histogram[s];
+			samples += s * histogram[s];
+			sizes.append(s > 1 ? "," : "").append('"').append(s).append("\":").append(histogram[s]);
+		}
+		return "{\"requests\":" + this.getRequests()
+				+ ",\"batches\":" + batches
+				+ ",\"meanBatchSize\":" + (batches == 0 ? 0 : ((double) samples) / batches)
+				+ ",\"p50Micros\":" + this.latencyMicros(0.5)
+				+ ",\"p99Micros\":" + this.latencyMicros(0.99)
+				+ ",\"batchSizes\":{" + sizes + "}}";
+	}
+}
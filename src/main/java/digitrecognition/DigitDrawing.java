@@ -95,7 +95,7 @@ public class DigitDrawing extends JPanel implements MouseListener, KeyListener,
 
 	@Override
 	public void mouseReleased(MouseEvent e) {
-		double[] output = net.evaluate(cells, 0);
+		double[] output = net.predict(cells);
 		System.out.println("I think you drew a " + Utility.maxIndex(output) + "!");
 		System.out.print("[ ");
 		for (int i = 0; i < 10; i++) {
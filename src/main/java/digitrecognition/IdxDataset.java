@@ -0,0 +1,145 @@
+package digitrecognition;
+
+import core.data.IndexedDataset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class IdxDataset implements IndexedDataset {
+
+	private static final int imagesMagic = 0x803;
+	private static final int labelsMagic = 0x801;
+	private static final int imagesHeader = 16;
+	private static final int labelsHeader = 8;
+
+	// pixels are normalized the same way the stream reader always did, unsigned byte / 256
+	private static final double[] normalized = new double[256];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			normalized[b] = b / 256.0;
+		}
+	}
+
+	private final int size;
+	private final int numClasses;
+	private final int numRows;
+	private final int numCols;
+	private final int imageSize;
+
+	// a single mapping is limited to 2GB, so the images are split into regions of whole images
+	private final MappedByteBuffer[] imageRegions;
+	private final int imagesPerRegion;
+	private final MappedByteBuffer labels;
+
+	public IdxDataset(Path imagesPath, Path labelsPath, int numClasses) throws IOException {
+		this.numClasses = numClasses;
+		try (FileChannel imagesChannel = FileChannel.open(imagesPath, StandardOpenOption.READ);
+			 FileChannel labelsChannel = FileChannel.open(labelsPath, StandardOpenOption.READ)) {
+			ByteBuffer imagesHead = imagesChannel.map(FileChannel.MapMode.READ_ONLY, 0, imagesHeader);
+			ByteBuffer labelsHead = labelsChannel.map(FileChannel.MapMode.READ_ONLY, 0, labelsHeader);
+			int magicImages = imagesHead.getInt(0);
+			if (magicImages != imagesMagic) {
+				throw new IOException("Expected magic header of 0x803 "
+						+ "for images, but found " + magicImages);
+			}
+			int magicLabels = labelsHead.getInt(0);
+			if (magicLabels != labelsMagic) {
+				throw new IOException("Expected magic header of 0x801 "
+						+ "for labels, but found " + magicLabels);
+			}
+
+			int numberOfImages = imagesHead.getInt(4);
+			int numberOfLabels = labelsHead.getInt(4);
+			if (numberOfImages != numberOfLabels) {
+				throw new IOException("Found " + numberOfImages
+						+ " images but " + numberOfLabels + " labels");
+			}
+			this.size = numberOfImages;
+			this.numRows = imagesHead.getInt(8);
+			this.numCols = imagesHead.getInt(12);
+			this.imageSize = this.numRows * this.numCols;
+
+			long imagesLength = imagesHeader + ((long) this.size) * this.imageSize;
+			if (imagesChannel.size() < imagesLength) {
+				throw new IOException("Expected " + imagesLength + " bytes of images, but found " + imagesChannel.size());
+			}
+			if (labelsChannel.size() < labelsHeader + (long) this.size) {
+				throw new IOException("Expected " + (labelsHeader + (long) this.size) + " bytes of labels, but found " + labelsChannel.size());
+			}
+
+			this.imagesPerRegion = Math.max(1, Integer.MAX_VALUE / Math.max(1, this.imageSize));
+			int numRegions = (this.size + this.imagesPerRegion - 1) / this.imagesPerRegion;
+			this.imageRegions = new MappedByteBuffer[numRegions];
+			for (int r = 0; r < numRegions; r++) {
+				int first = r * this.imagesPerRegion;
+				int count = Math.min(this.imagesPerRegion, this.size - first);
+				this.imageRegions[r] = imagesChannel.map(FileChannel.MapMode.READ_ONLY,
+						imagesHeader + ((long) first) * this.imageSize,
+						((long) count) * this.imageSize);
+			}
+			this.labels = labelsChannel.map(FileChannel.MapMode.READ_ONLY, labelsHeader, this.size);
+		}
+	}
+
+	@Override
+	public int getNumInputs() {
+		return this.imageSize;
+	}
+
+	@Override
+	public int getNumOutputs() {
+		return this.numClasses;
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	public int getNumRows() {
+		return this.numRows;
+	}
+
+	public int getNumCols() {
+		return this.numCols;
+	}
+
+	// all reads use absolute indices, so the mapped buffers can be shared between threads
+
+	@Override
+	public int label(int n) {
+		return this.labels.get(n) & 0xFF;
+	}
+
+	public int pixel(int n, int p) {
+		return this.imageRegions[n / this.imagesPerRegion].get((n % this.imagesPerRegion) * this.imageSize + p) & 0xFF;
+	}
+
+	@Override
+	public void copyInput(int n, double[] into, int offset) {
+		ByteBuffer region = this.imageRegions[n / this.imagesPerRegion];
+		int base = (n % this.imagesPerRegion) * this.imageSize;
+		for (int p = 0; p < this.imageSize; p++) {
+			into[offset + p] = normalized[region.get(base + p) & 0xFF];
+		}
+	}
+
+	@Override
+	public void copyAnswer(int n, double[] into, int offset) {
+		int label = this.label(n);
+		for (int i = 0; i < this.numClasses; i++) {
+			into[offset + i] = i == label ? 1.0 : 0.0;
+		}
+	}
+
+	public double[] image(int n) {
+		double[] image = new double[this.imageSize];
+		this.copyInput(n, image, 0);
+		return image;
+	}
+}
@@ -1,5 +1,7 @@
 package digitrecognition;
 
+import core.network.ConvolutionalNetwork;
+import core.network.InferenceNetwork;
 import core.network.Network;
 
 import javax.swing.*;
@@ -7,7 +9,8 @@ import javax.swing.*;
 public class RunDraw {
 
 	public static void main(String[] args) {
-		Network net = Network.deserialize("networks");
+		// drawing only ever predicts, so the trained network is frozen into an inference network
+		Network net = new InferenceNetwork((ConvolutionalNetwork) Network.deserialize("networks"), 1);
 
 		JFrame frame = new JFrame("Canvas Example");
 		frame.add(new DigitDrawing(net));
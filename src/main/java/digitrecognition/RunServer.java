@@ -0,0 +1,23 @@
+package digitrecognition;
+
+import core.network.ConvolutionalNetwork;
+import core.network.InferenceNetwork;
+import core.network.Network;
+import core.serving.InferenceServer;
+
+import java.io.IOException;
+
+public class RunServer {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = 8080;
+		int maxBatchSize = 32;
+		long maxDelayMicros = 2000;
+		int handlerThreads = 64;
+
+		Network net = new InferenceNetwork((ConvolutionalNetwork) Network.deserialize("networks"), maxBatchSize);
+		InferenceServer server = new InferenceServer(net, port, maxBatchSize, maxDelayMicros, handlerThreads);
+		System.out.println("Serving on http://localhost:" + server.getPort() + "/predict, stats at /stats");
+		Thread.currentThread().join();
+	}
+}
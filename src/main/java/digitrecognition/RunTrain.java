@@ -2,17 +2,20 @@ package digitrecognition;
 
 import core.*;
 import core.layer.*;
+import core.metrics.ConsoleSink;
+import core.metrics.JmxSink;
 import core.network.ConvolutionalNetwork;
 import core.network.ConvolutionalNetworkParameters;
 import core.network.Network;
 
+import javax.management.JMException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
 public class RunTrain {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws JMException {
 
 		long t0 = System.currentTimeMillis();
 
@@ -20,6 +23,10 @@ public class RunTrain {
 		double trainingRate = 1;
 		int stochasticBatchSize = 10;
 		int ram = 10;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int loaders = 1;
+		int prefetchDepth = 4;
+		long seed = t0;
 
 		List<LayerParameters> layerParams = new ArrayList<>(List.of(
 				new ConvolutionalLayerParameters(2, 3, 0, ActFunc.RELU),
@@ -37,9 +44,15 @@ public class RunTrain {
 		DigitRecognitionFitness trainFit = new DigitRecognitionFitness(true, 1.0, false);
 		DigitRecognitionFitness testFit = new DigitRecognitionFitness(false, 1.0, true);
 
-		Trainer t = new Trainer(trainingRate, net, trainFit, stochasticBatchSize, ram);
+		Trainer t = new Trainer(trainingRate, net, trainFit.getDataset(), stochasticBatchSize, ram, threads, seed);
 
+		System.out.println("Kernels = " + Kernels.getKernels().getName());
+		t.prefetch(loaders, prefetchDepth, null);
+		t.getMetrics().setCountAllocations(true);
+		t.getMetrics().addSink(new ConsoleSink());
+		t.getMetrics().addSink(new JmxSink("RunTrain"));
 		t.train(cycles);
+		t.shutdown();
 
 		long t1 = System.currentTimeMillis();
 